@@ -3,9 +3,11 @@ package com.example;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableAspectJAutoProxy(exposeProxy = true)
+@EnableScheduling
 public class BCommentApplication {
     public static void main(String[] args) {
         SpringApplication.run(BCommentApplication.class, args);
@@ -0,0 +1,44 @@
+package com.example.config;
+
+import com.example.utils.BinaryCacheCodec;
+import com.example.utils.CacheCodec;
+import com.example.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+@Configuration
+public class CacheConfig {
+    /**
+     * 缓存值编码，json或binary
+     * @param codec
+     * @return
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${cache.codec:json}") String codec) {
+        if ("binary".equalsIgnoreCase(codec)) {
+            return new BinaryCacheCodec();
+        }
+        if (!"json".equalsIgnoreCase(codec)) {
+            throw new IllegalArgumentException("未知的cache.codec:" + codec);
+        }
+        return new JsonCacheCodec();
+    }
+
+    /**
+     * 按字节读写缓存值的template，key仍为字符串
+     * @param connectionFactory
+     * @return
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> cacheRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.annotation.Resource;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 业务线程池，交给Spring管理生命周期，关闭时等待任务完成
+ * 队列长度、活跃线程数等由actuator以executor.*指标暴露，任务排队和执行耗时由TaskDecorator记录
+ */
+@Configuration
+@Slf4j
+public class ExecutorConfig {
+    @Resource
+    private MeterRegistry meterRegistry;
+    /**
+     * JDK支持时使用虚拟线程
+     */
+    @Value("${executor.virtual-threads:false}")
+    private boolean virtualThreads;
+    @Value("${executor.await-termination-seconds:10}")
+    private int awaitTerminationSeconds;
+
+    /**
+     * 逻辑过期缓存重建线程池
+     * 提交方靠RejectedExecutionException释放重建锁，不能使用静默丢弃任务的拒绝策略，否则锁要等到过期才释放
+     * @return
+     */
+    @Bean
+    public ThreadPoolTaskExecutor cacheRebuildExecutor(
+            @Value("${executor.cache-rebuild.core-size:10}") int coreSize,
+            @Value("${executor.cache-rebuild.max-size:10}") int maxSize,
+            @Value("${executor.cache-rebuild.queue-capacity:1000}") int queueCapacity,
+            @Value("${executor.cache-rebuild.rejection:abort}") String rejection) {
+        if (rejection.startsWith("discard")) {
+            throw new IllegalArgumentException("executor.cache-rebuild.rejection不支持" + rejection + "，可选abort、caller-runs");
+        }
+        return build("cacheRebuildExecutor", "cache-rebuild-", coreSize, maxSize, queueCapacity, rejection);
+    }
+
+    /**
+     * 博文推送到粉丝收件箱的线程池，被拒绝的任务由定时任务继续
+     * @return
+     */
+    @Bean
+    public ThreadPoolTaskExecutor feedFanoutExecutor(
+            @Value("${executor.feed-fanout.core-size:4}") int coreSize,
+            @Value("${executor.feed-fanout.max-size:4}") int maxSize,
+            @Value("${executor.feed-fanout.queue-capacity:1000}") int queueCapacity) {
+        return build("feedFanoutExecutor", "feed-fanout-", coreSize, maxSize, queueCapacity, "abort");
+    }
+
+    /**
+     * 关注流下一页预取线程池，预取是尽力而为的，队列满时丢弃
+     * @return
+     */
+    @Bean
+    public ThreadPoolTaskExecutor feedPrefetchExecutor(
+            @Value("${executor.feed-prefetch.core-size:4}") int coreSize,
+            @Value("${executor.feed-prefetch.max-size:4}") int maxSize,
+            @Value("${executor.feed-prefetch.queue-capacity:100}") int queueCapacity) {
+        return build("feedPrefetchExecutor", "feed-prefetch-", coreSize, maxSize, queueCapacity, "discard");
+    }
+
+    /**
+     * 秒杀订单消费线程池，每个线程一个消费者，不排队
+     * @return
+     */
+    @Bean
+    public ThreadPoolTaskExecutor seckillOrderExecutor(@Value("${seckill.order.consumers:4}") int consumers) {
+        return build("seckillOrderExecutor", "seckill-order-", consumers, consumers, 0, "abort");
+    }
+
+    private ThreadPoolTaskExecutor build(String name, String threadNamePrefix, int coreSize, int maxSize,
+                                         int queueCapacity, String rejection) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(rejectedExecutionHandler(rejection));
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(awaitTerminationSeconds);
+        if (virtualThreads) {
+            ThreadFactory threadFactory = virtualThreadFactory(threadNamePrefix);
+            if (threadFactory != null) {
+                executor.setThreadFactory(threadFactory);
+            } else {
+                log.warn("当前JDK不支持虚拟线程，{}使用平台线程", name);
+            }
+        }
+        //任务提交时装饰，记录排队耗时和执行耗时
+        Timer waitTimer = Timer.builder("executor.task.wait").tag("name", name).register(meterRegistry);
+        Timer runTimer = Timer.builder("executor.task.run").tag("name", name).register(meterRegistry);
+        executor.setTaskDecorator(task -> {
+            long submitTime = System.nanoTime();
+            return () -> {
+                long startTime = System.nanoTime();
+                waitTimer.record(startTime - submitTime, TimeUnit.NANOSECONDS);
+                try {
+                    task.run();
+                } finally {
+                    runTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                }
+            };
+        });
+        return executor;
+    }
+
+    /**
+     * 拒绝策略：abort抛出异常，caller-runs由提交线程执行，discard直接丢弃
+     * @param rejection
+     * @return
+     */
+    private RejectedExecutionHandler rejectedExecutionHandler(String rejection) {
+        switch (rejection) {
+            case "caller-runs":
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            case "discard":
+                return new ThreadPoolExecutor.DiscardPolicy();
+            default:
+                return new ThreadPoolExecutor.AbortPolicy();
+        }
+    }
+
+    /**
+     * 通过反射创建虚拟线程工厂（Thread.ofVirtual()），兼容不支持虚拟线程的JDK
+     * @param threadNamePrefix
+     * @return 不支持时返回null
+     */
+    private ThreadFactory virtualThreadFactory(String threadNamePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
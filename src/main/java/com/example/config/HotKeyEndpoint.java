@@ -0,0 +1,30 @@
+package com.example.config;
+
+import com.example.utils.HotKeyDetector;
+import org.springframework.boot.actuate.autoconfigure.web.server.ConditionalOnManagementPort;
+import org.springframework.boot.actuate.autoconfigure.web.server.ManagementPortType;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * 查看当前热key：GET /actuator/hotkeys
+ * 返回的key中带有用户id、博文id，只在独立的管理端口上注册，管理端口与业务端口相同时不暴露
+ */
+@Component
+@Endpoint(id = "hotkeys")
+@ConditionalOnManagementPort(ManagementPortType.DIFFERENT)
+public class HotKeyEndpoint {
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * @return key -> 滑动窗口内估计访问次数，按访问次数降序
+     */
+    @ReadOperation
+    public Map<String, Long> hotKeys() {
+        return hotKeyDetector.topKeys();
+    }
+}
@@ -22,6 +22,7 @@ public class MVCConfig implements WebMvcConfigurer {
                         "/user/login",
                         "/user/loginForPassword",
                         "/blog/hot",
+                        "/blog/hot/scroll",
                         "/shop/**",
                         "/shop-type/**",
                         "/upload/**",
@@ -28,6 +28,16 @@ public class BlogController {
         return blogService.saveBlog(blog);
     }
 
+    /**
+     * 查询博文推送给粉丝的进度
+     * @param id
+     * @return
+     */
+    @GetMapping("/fanout/{id}")
+    public Result queryFanoutProgress(@PathVariable("id") Long id) {
+        return blogService.queryFanoutProgress(id);
+    }
+
     /**
      * 点赞
      * @param id
@@ -58,6 +68,18 @@ public class BlogController {
         return blogService.queryHotBlog(current);
     }
 
+    /**
+     * 热门博文滚动分页
+     * @param max 上一页最小分数，第一页不传
+     * @param offset
+     * @return
+     */
+    @GetMapping("/hot/scroll")
+    public Result queryHotBlogScroll(@RequestParam(value = "lastScore", required = false) Double max,
+                                     @RequestParam(value = "offset", defaultValue = "0") Integer offset) {
+        return blogService.queryHotBlogScroll(max, offset);
+    }
+
     /**
      * 通过id查询博客
      * @param id
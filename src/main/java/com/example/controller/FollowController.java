@@ -40,12 +40,26 @@ public class FollowController {
     }
 
     /**
-     * 共同关注
+     * 查询关注数和粉丝数
      * @param id
      * @return
      */
+    @GetMapping("/count/{id}")
+    public Result queryFollowCounts(@PathVariable("id") Long id){
+        return followService.queryFollowCounts(id);
+    }
+
+    /**
+     * 共同关注，按游标分页
+     * @param id
+     * @param cursor 上一页返回的游标，第一页不传
+     * @param count 每页条数
+     * @return
+     */
     @GetMapping("/common/{id}")
-    public Result followCommons(@PathVariable("id") Long id){
-        return followService.followCommons(id);
+    public Result followCommons(@PathVariable("id") Long id,
+                                @RequestParam(value = "cursor", required = false) String cursor,
+                                @RequestParam(value = "count", required = false) Integer count){
+        return followService.followCommons(id, cursor, count);
     }
 }
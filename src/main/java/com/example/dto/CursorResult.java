@@ -0,0 +1,14 @@
+package com.example.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 按游标分页的结果，cursor为空表示没有更多
+ */
+@Data
+public class CursorResult {
+    private List<?> list;
+    private String cursor;
+}
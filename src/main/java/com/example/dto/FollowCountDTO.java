@@ -0,0 +1,12 @@
+package com.example.dto;
+
+import lombok.Data;
+
+/**
+ * 关注数和粉丝数
+ */
+@Data
+public class FollowCountDTO {
+    private Long following;
+    private Long followers;
+}
@@ -0,0 +1,15 @@
+package com.example.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 按分数滚动分页的结果，分数可能为小数
+ */
+@Data
+public class ScoreScrollResult {
+    private List<?> list;
+    private Double minScore;
+    private Integer offset;
+}
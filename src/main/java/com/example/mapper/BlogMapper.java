@@ -3,6 +3,10 @@ package com.example.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.entity.Blog;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.Map;
 
 /**
  * <p>
@@ -12,4 +16,24 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 一条语句批量累加点赞数
+     * @param deltas 博文id -> 点赞数增量
+     * @return
+     */
+    int increaseLikedBatch(@Param("deltas") Map<Long, Integer> deltas);
+
+    /**
+     * 记录已应用的点赞刷新批次号，INSERT IGNORE，批次号已存在返回0
+     * @param batchId
+     * @return
+     */
+    int insertLikeFlushBatch(@Param("batchId") long batchId);
+
+    /**
+     * 删除早于指定时间的批次号记录
+     * @param before
+     * @return
+     */
+    int deleteLikeFlushBefore(@Param("before") LocalDateTime before);
 }
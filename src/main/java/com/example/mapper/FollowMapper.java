@@ -3,6 +3,11 @@ package com.example.mapper;
 import com.example.entity.Follow;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -12,4 +17,24 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface FollowMapper extends BaseMapper<Follow> {
 
+    /**
+     * 批量新增关注，已存在的忽略
+     * @param follows
+     * @return
+     */
+    int insertIgnoreBatch(@Param("follows") List<Follow> follows);
+
+    /**
+     * 批量删除关注
+     * @param follows
+     * @return
+     */
+    int deleteBatch(@Param("follows") List<Follow> follows);
+
+    /**
+     * 批量查询粉丝数，没有粉丝的用户不返回
+     * @param userIds
+     * @return userId、followers
+     */
+    List<Map<String, Object>> countFollowers(@Param("userIds") Collection<Long> userIds);
 }
@@ -3,6 +3,7 @@ package com.example.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.entity.SeckillVoucher;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
  * <p>
@@ -12,4 +13,11 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /**
+     * 按数量扣减库存，库存不足时不扣减
+     * @param voucherId
+     * @param count
+     * @return 影响行数
+     */
+    int decreaseStock(@Param("voucherId") Long voucherId, @Param("count") int count);
 }
@@ -3,6 +3,9 @@ package com.example.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.entity.VoucherOrder;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -12,4 +15,10 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行插入订单，一条INSERT写入整批，主键或(user_id, voucher_id)重复的行被忽略
+     * @param orders
+     * @return 实际插入行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
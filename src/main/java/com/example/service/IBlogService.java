@@ -5,6 +5,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.example.dto.Result;
 import com.example.entity.Blog;
 
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -14,12 +16,18 @@ public interface IBlogService extends IService<Blog> {
 
     Result saveBlog(Blog blog);
 
+    Result queryFanoutProgress(Long id);
+
     Result likeBlog(Long id);
 
+    void applyLikeDeltas(long batchId, Map<Long, Integer> deltas);
+
     Result queryMyBlog(Integer current);
 
     Result queryHotBlog(Integer current);
 
+    Result queryHotBlogScroll(Double max, Integer offset);
+
     Result queryBlogById(Long id);
 
     Result queryBlogLikes(Long id);
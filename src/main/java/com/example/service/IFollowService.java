@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.example.dto.Result;
 import com.example.entity.Follow;
 
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -15,5 +17,13 @@ public interface IFollowService extends IService<Follow> {
 
     Result isFollow(Long followUserId);
 
-    Result followCommons(Long id);
+    Result followCommons(Long id, String cursor, Integer count);
+
+    void ensureFollowsLoaded(Long userId);
+
+    Result queryFollowCounts(Long userId);
+
+    long countFollowers(Long userId);
+
+    Map<Long, Boolean> queryPendingFollowers(Long followUserId);
 }
@@ -11,4 +11,7 @@ import com.example.entity.SeckillVoucher;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    boolean decreaseStock(Long voucherId, int count);
+
+    void cacheSeckillVoucher(SeckillVoucher seckillVoucher, boolean overwriteStock);
 }
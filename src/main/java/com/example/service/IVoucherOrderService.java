@@ -5,6 +5,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.example.dto.Result;
 import com.example.entity.VoucherOrder;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,5 +15,5 @@ import com.example.entity.VoucherOrder;
 public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder voucherId);
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
@@ -0,0 +1,132 @@
+package com.example.service.impl;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.example.dto.UserDTO;
+import com.example.entity.Blog;
+import com.example.service.IUserService;
+import com.example.utils.BlogLikeSegments;
+import com.example.utils.CacheClient;
+import com.example.utils.HotKeyDetector;
+import com.example.utils.UserHolder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.example.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.example.utils.RedisConstants.CACHE_BLOG_TTL;
+import static com.example.utils.RedisConstants.CACHE_USER_KEY;
+import static com.example.utils.RedisConstants.CACHE_USER_TTL;
+
+/**
+ * 博文列表填充作者和点赞状态，每页的redis往返次数固定：
+ * 博文一次MGET、作者一次MGET（未命中各一次查库）、点赞状态一个pipeline
+ */
+@Component
+public class BlogHydrator {
+    @Resource
+    private IUserService userService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Value("${blog.like.segments:1}")
+    private int likeSegments;
+
+    /**
+     * 按id批量查询博文并填充作者和点赞状态
+     * @param ids
+     * @param dbFallBack 按id集合查库，如listByIds
+     * @return 按ids顺序，缓存中的对象可能被共享，返回的是副本
+     */
+    public List<Blog> loadByIds(List<Long> ids, Function<Collection<Long>, List<Blog>> dbFallBack) {
+        List<Blog> blogs = cacheClient.queryBatchWithPassThrough(CACHE_BLOG_KEY, ids, Blog.class,
+                dbFallBack, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES)
+                .stream().map(blog -> BeanUtil.copyProperties(blog, Blog.class)).collect(Collectors.toList());
+        hydrate(blogs);
+        return blogs;
+    }
+
+    /**
+     * 只预热博文缓存，不填充
+     * @param ids
+     * @param dbFallBack
+     */
+    public void preload(List<Long> ids, Function<Collection<Long>, List<Blog>> dbFallBack) {
+        cacheClient.queryBatchWithPassThrough(CACHE_BLOG_KEY, ids, Blog.class,
+                dbFallBack, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 填充作者和点赞状态
+     * @param blogs
+     */
+    public void hydrate(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        fillUsers(blogs);
+        fillLiked(blogs);
+    }
+
+    /**
+     * 批量查询博文作者，走用户缓存的一次MGET，未命中的一次查库
+     * @param blogs
+     */
+    private void fillUsers(List<Blog> blogs) {
+        //1.收集作者id
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        //2.批量查询用户
+        Map<Long, UserDTO> users = cacheClient.queryBatchWithPassThrough(CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> userService.listByIds(ids).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList()),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES)
+                .stream().collect(Collectors.toMap(UserDTO::getId, user -> user));
+        //3.设置昵称和头像
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user == null) {
+                continue;
+            }
+            blog.setName(user.getNickName());
+            blog.setIcon(user.getIcon());
+        }
+    }
+
+    /**
+     * 一个pipeline查询当前用户是否点赞了各博文，未登录不查询
+     * @param blogs
+     */
+    private void fillLiked(List<Blog> blogs) {
+        //1.获取登录用户
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return;
+        }
+        String userId = user.getId().toString();
+        //2.ZSCORE 点赞集合 userId
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                String key = BlogLikeSegments.likedKey(blog.getId(), likeSegments);
+                hotKeyDetector.record(key);
+                stringConnection.zScore(key, userId);
+            }
+            return null;
+        });
+        //3.按顺序设置点赞状态
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+}
@@ -4,25 +4,44 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.example.dto.Result;
+import com.example.dto.ScoreScrollResult;
 import com.example.dto.ScrollResult;
 import com.example.dto.UserDTO;
 import com.example.entity.Blog;
-import com.example.entity.Follow;
-import com.example.entity.User;
 import com.example.mapper.BlogMapper;
 import com.example.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.example.service.IFollowService;
 import com.example.service.IUserService;
+import com.example.utils.CacheClient;
+import com.example.utils.BlogLikeSegments;
+import com.example.utils.HotKeyDetector;
+import com.example.utils.RedisIdWorker;
 import com.example.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import static com.example.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.example.utils.RedisConstants.FEED_KEY;
+import static com.example.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.example.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.example.utils.RedisConstants.LOCK_BLOG_HOT_KEY;
+import static com.example.utils.RedisConstants.LOCK_BLOG_LIKE_FLUSH_KEY;
 import static com.example.utils.SystemConstants.MAX_PAGE_SIZE;
 
 /**
@@ -30,6 +49,7 @@ import static com.example.utils.SystemConstants.MAX_PAGE_SIZE;
  *  服务实现类
  * </p>
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
     @Resource
@@ -37,7 +57,136 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private IFollowService followService;
+    private CacheClient cacheClient;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private BlogHydrator blogHydrator;
+    @Resource
+    private FeedFanout feedFanout;
+    @Resource
+    private FeedReader feedReader;
+    @Resource
+    private FeedRetention feedRetention;
+    @Resource
+    private ThreadPoolTaskExecutor feedPrefetchExecutor;
+    @Resource
+    private RedissonClient redissonClient;
+    @Lazy
+    @Resource
+    private IBlogService proxy;
+    @Value("${blog.like.flush-batch-size:500}")
+    private int likeFlushBatchSize;
+    //点赞数据的分段数，1表示不分段
+    @Value("${blog.like.segments:1}")
+    private int likeSegments;
+    //已应用批次号的保留天数
+    @Value("${blog.like.flush-record-days:7}")
+    private int likeFlushRecordDays;
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    private static final String LIKE_FLUSH_BATCH_FIELD = "batch";
+    private static final int HOT_RANK_LOAD_BATCH = 1000;
+    /**
+     * 热门排行榜每个衰减周期的分数乘数，1表示不衰减
+     */
+    @Value("${blog.hot.decay-factor:1.0}")
+    private double hotDecayFactor;
+    @Value("${blog.hot.decay-interval-ms:3600000}")
+    private long hotDecayIntervalMs;
+    @Value("${feed.page-size:10}")
+    private int feedPageSize;
+    @Value("${feed.prefetch.enabled:true}")
+    private boolean feedPrefetchEnabled;
+    //点赞的lua脚本
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    //取出一批点赞数增量的lua脚本
+    private static final DefaultRedisScript<List> LIKE_FLUSH_SCRIPT;
+    //更新热门排行榜的lua脚本
+    private static final DefaultRedisScript<String> HOT_RANK_SCRIPT;
+    static {
+        HOT_RANK_SCRIPT = new DefaultRedisScript<>();
+        HOT_RANK_SCRIPT.setLocation(new ClassPathResource("hot_rank.lua"));
+        HOT_RANK_SCRIPT.setResultType(String.class);
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+        LIKE_FLUSH_SCRIPT = new DefaultRedisScript<>();
+        LIKE_FLUSH_SCRIPT.setLocation(new ClassPathResource("like_flush.lua"));
+        LIKE_FLUSH_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * 用全部博文id预加载布隆过滤器
+     */
+    @PostConstruct
+    private void initBloomFilter() {
+        cacheClient.initBloomFilter(CACHE_BLOG_KEY, lastId -> listObjs(query().select("id")
+                .gt("id", lastId).orderByAsc("id").last("limit " + cacheClient.bloomLoadBatch()).getWrapper(),
+                id -> ((Number) id).longValue()));
+    }
+
+    /**
+     * 热门排行榜不存在时按数据库点赞数初始化，多节点用分布式锁保证只初始化一次。
+     * 先写入同一slot的临时key，再用ZUNIONSTORE累加到排行榜，保留初始化期间的点赞和新博文
+     */
+    @PostConstruct
+    private void initHotRank() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(LOCK_BLOG_HOT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+                return;
+            }
+            String buildingKey = "{" + BLOG_HOT_KEY + "}:building";
+            stringRedisTemplate.delete(buildingKey);
+            long lastId = 0;
+            List<Blog> blogs;
+            do {
+                blogs = query().select("id", "liked").gt("id", lastId).orderByAsc("id")
+                        .last("limit " + HOT_RANK_LOAD_BATCH).list();
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size());
+                for (Blog blog : blogs) {
+                    tuples.add(new DefaultTypedTuple<>(blog.getId().toString(),
+                            blog.getLiked() == null ? 0D : blog.getLiked().doubleValue()));
+                    lastId = blog.getId();
+                }
+                stringRedisTemplate.opsForZSet().add(buildingKey, tuples);
+            } while (blogs.size() >= HOT_RANK_LOAD_BATCH);
+            //ZUNIONSTORE blog:hot 2 blog:hot {blog:hot}:building
+            stringRedisTemplate.opsForZSet().unionAndStore(BLOG_HOT_KEY, buildingKey, BLOG_HOT_KEY);
+            stringRedisTemplate.delete(buildingKey);
+            log.info("热门博文排行榜初始化完成");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 热门排行榜按比例衰减，让新近的点赞权重更高；每个周期只有一个节点执行
+     */
+    @Scheduled(fixedDelayString = "${blog.hot.decay-interval-ms:3600000}")
+    public void decayHotRank() {
+        if (hotDecayFactor >= 1) {
+            return;
+        }
+        Boolean first = stringRedisTemplate.opsForValue()
+                .setIfAbsent(BLOG_HOT_KEY + ":decayed", "1", hotDecayIntervalMs, TimeUnit.MILLISECONDS);
+        if (!Boolean.TRUE.equals(first)) {
+            return;
+        }
+        //ZUNIONSTORE blog:hot 1 blog:hot WEIGHTS factor
+        stringRedisTemplate.opsForZSet().unionAndStore(BLOG_HOT_KEY, Collections.emptyList(), BLOG_HOT_KEY,
+                RedisZSetCommands.Aggregate.SUM, RedisZSetCommands.Weights.of(hotDecayFactor));
+    }
     /**
      * 保存博客并推送
      * @param blog
@@ -48,55 +197,155 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         //1. 获取登录用户
         UserDTO user = UserHolder.getUser();
         blog.setUserId(user.getId());
+        //发布时间精确到秒，与数据库中的create_time一致，推送和重建收件箱的分数相同
+        blog.setCreateTime(LocalDateTime.now().withNano(0));
         //2. 保存探店博文
         boolean save = save(blog);
         //3. 判断是否成功
         if (!save){
             return Result.fail("新增博文失败");
         }
-        //4. 查询作者的所有粉丝
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        //5. 推送博文给粉丝
-        follows.forEach((item) -> {
-            //获取粉丝id
-            Long userId = item.getUserId();
-            String key = FEED_KEY + userId;
-            //推送
-            stringRedisTemplate.opsForZSet().add(key , blog.getId().toString() , System.currentTimeMillis());
-        });
+        cacheClient.addToBloomFilter(CACHE_BLOG_KEY, blog.getId());
+        stringRedisTemplate.opsForZSet().addIfAbsent(BLOG_HOT_KEY, blog.getId().toString(), 0);
+        //4. 写入发件箱或异步分批推送给粉丝，不等待推送完成
+        feedFanout.publish(blog.getId(), user.getId(), FeedFanout.score(blog.getCreateTime()));
         // 返回博文id
         return Result.ok(blog.getId());
     }
+
+    /**
+     * 查询博文推送进度，只有作者可以查看
+     * @param id
+     * @return
+     */
+    @Override
+    public Result queryFanoutProgress(Long id) {
+        Map<Object, Object> progress = feedFanout.progress(id);
+        if (progress.isEmpty() || !UserHolder.getUser().getId().toString().equals(progress.get("authorId"))) {
+            return Result.fail("推送任务不存在");
+        }
+        return Result.ok(progress);
+    }
+
     /**
-     * 点赞
+     * 点赞，一次lua切换点赞状态并累加点赞数增量，由定时任务批量刷新到数据库；
+     * 热门排行榜与点赞数据不在同一个slot，按点赞结果单独更新
      * @param id
      * @return
      */
     @Override
     public Result likeBlog(Long id) {
+        if (!cacheClient.mightContain(CACHE_BLOG_KEY, id)){
+            return Result.fail("笔记不存在");
+        }
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        // 3.如果未点赞，可以点赞
-        if (score == null){
-            // 3.1.数据库点赞数 + 1
-            boolean isSuccess1 = update().setSql("liked = liked + 1 ").eq("id",id).update();
-            // 3.2.保存用户到Redis的set集合  zadd key value score
-            if (isSuccess1) {
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(),System.currentTimeMillis());
+        // 2.已点赞则取消，未点赞则点赞，同时记录增量和待刷新的博文id
+        String key = BlogLikeSegments.likedKey(id, likeSegments);
+        hotKeyDetector.record(key);
+        int segment = BlogLikeSegments.segment(id, likeSegments);
+        Long liked = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(key, BlogLikeSegments.deltaKey(segment, likeSegments),
+                        BlogLikeSegments.dirtyKey(segment, likeSegments)),
+                userId.toString(),
+                String.valueOf(System.currentTimeMillis()),
+                id.toString()
+        );
+        // 3.更新热门排行榜
+        stringRedisTemplate.execute(HOT_RANK_SCRIPT, Collections.singletonList(BLOG_HOT_KEY),
+                id.toString(), String.valueOf(liked));
+        return Result.ok();
+    }
+
+    /**
+     * 定时把点赞数增量批量刷新到数据库，多节点间用分布式锁保证只有一个节点在刷新
+     */
+    @Scheduled(fixedDelayString = "${blog.like.flush-interval-ms:1000}")
+    public void flushLikes() {
+        RLock lock = redissonClient.getLock(LOCK_BLOG_LIKE_FLUSH_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            for (int segment = 0; segment < Math.max(likeSegments, 1); segment++) {
+                //一批取满说明还有积压，继续刷新
+                while (flushLikeBatch(segment) >= likeFlushBatchSize) {
+                    log.debug("点赞数仍有积压，继续刷新");
+                }
             }
-        }else {
-            //4.如果已点赞，取消点赞
-            // 4.1.数据库点赞数 -1
-            boolean isSuccess2 = update().setSql("liked = liked - 1 ").eq("id",id).update();
-            // 4.2.把用户从Redis的set集合移除
-            if(isSuccess2){
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+        } catch (Exception e) {
+            log.error("刷新点赞数失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 刷新一段的一批点赞数
+     * @param segment
+     * @return 本批博文数
+     */
+    private int flushLikeBatch(int segment) {
+        //1.取出一批增量，上次未完成的批次会被重新取出；
+        //新批次的批次号带时间戳，redis中的序列丢失后重新计数也不会与已应用的批次重复
+        String flushingKey = BlogLikeSegments.flushingKey(segment, likeSegments);
+        List<String> flushing = stringRedisTemplate.execute(
+                LIKE_FLUSH_SCRIPT,
+                Arrays.asList(BlogLikeSegments.deltaKey(segment, likeSegments),
+                        BlogLikeSegments.dirtyKey(segment, likeSegments), flushingKey),
+                String.valueOf(likeFlushBatchSize),
+                String.valueOf(redisIdWorker.nextId("like:flush"))
+        );
+        if (flushing == null || flushing.isEmpty()) {
+            return 0;
+        }
+        //2.解析批次号和增量
+        long batchId = 0;
+        Map<Long, Integer> deltas = new HashMap<>(flushing.size() / 2);
+        for (int i = 0; i + 1 < flushing.size(); i += 2) {
+            if (LIKE_FLUSH_BATCH_FIELD.equals(flushing.get(i))) {
+                batchId = Long.parseLong(flushing.get(i + 1));
+            } else {
+                deltas.put(Long.valueOf(flushing.get(i)), Integer.valueOf(flushing.get(i + 1)));
             }
         }
-            return Result.ok();
+        //3.写入数据库，批次号保证重放时只应用一次
+        if (!deltas.isEmpty()) {
+            proxy.applyLikeDeltas(batchId, deltas);
+        }
+        //4.删除刷新中的批次，清除博文缓存中的旧点赞数
+        stringRedisTemplate.delete(flushingKey);
+        for (Long blogId : deltas.keySet()) {
+            cacheClient.delete(CACHE_BLOG_KEY + blogId);
+        }
+        return deltas.size();
+    }
+
+    /**
+     * 清除过期的已应用批次号，超过保留期的批次不会再被重放
+     */
+    @Scheduled(fixedDelayString = "${blog.like.flush-record-prune-interval-ms:3600000}")
+    public void pruneLikeFlushRecords() {
+        int deleted = getBaseMapper().deleteLikeFlushBefore(LocalDateTime.now().minusDays(likeFlushRecordDays));
+        if (deleted > 0) {
+            log.debug("清除点赞刷新批次记录{}条", deleted);
+        }
+    }
+
+    /**
+     * 在一个事务中记录批次号并批量累加点赞数，批次号已存在说明已应用过
+     * @param batchId
+     * @param deltas
+     */
+    @Override
+    @Transactional
+    public void applyLikeDeltas(long batchId, Map<Long, Integer> deltas) {
+        if (getBaseMapper().insertLikeFlushBatch(batchId) == 0) {
+            log.info("点赞刷新批次{}已应用，跳过", batchId);
+            return;
+        }
+        getBaseMapper().increaseLikedBatch(deltas);
     }
     /**
      * 查询当前用户博客
@@ -110,45 +359,79 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 根据用户查询
         Page<Blog> page = query()
                 .eq("user_id", user.getId()).page(new Page<>(current, MAX_PAGE_SIZE));
-        // 获取当前页数据
+        // 获取当前页数据，批量填充作者和点赞状态
         List<Blog> records = page.getRecords();
+        blogHydrator.hydrate(records);
         return Result.ok(records);
     }
 
     /**
-     * 按点赞数排序
+     * 按点赞数排序，从热门排行榜按排名分页，每页开销与页码无关
      * @param current
      * @return
      */
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
-        return Result.ok(records);
+        // 1.ZREVRANGE blog:hot start stop
+        long start = (long) (Math.max(current, 1) - 1) * MAX_PAGE_SIZE;
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .reverseRange(BLOG_HOT_KEY, start, start + MAX_PAGE_SIZE - 1);
+        if (members == null || members.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2.批量查询博文、作者和点赞状态
+        List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        return Result.ok(hydrateBlogs(ids));
     }
 
     /**
-     * 查询博文有关的用户
-     * @param blog
+     * 热门博文滚动分页，游标为上一页最小分数及该分数已返回的条数
+     * @param max 上一页最小分数，第一页不传
+     * @param offset 上一页最小分数的条数
+     * @return
      */
-    private void queryBlogUser(Blog blog) {
-        //查询当前用户id
-        Long userId = blog.getUserId();
-        //得到用户对象
-        User user = userService.getById(userId);
-        //设置昵称
-        blog.setName(user.getNickName());
-        //设置头像
-        blog.setIcon(user.getIcon());
+    @Override
+    public Result queryHotBlogScroll(Double max, Integer offset) {
+        // 1.ZREVRANGEBYSCORE blog:hot max -inf WITHSCORES LIMIT offset count
+        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(BLOG_HOT_KEY, Double.NEGATIVE_INFINITY,
+                        max == null ? Double.POSITIVE_INFINITY : max, offset, MAX_PAGE_SIZE);
+        if (typedTuples == null || typedTuples.isEmpty()) {
+            return Result.ok();
+        }
+        // 2.解析id、最小分数和最小分数的条数
+        List<Long> ids = new ArrayList<>(typedTuples.size());
+        double minScore = Double.NaN;
+        int os = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
+            ids.add(Long.valueOf(Objects.requireNonNull(tuple.getValue())));
+            double score = Objects.requireNonNull(tuple.getScore());
+            if (score == minScore) {
+                os++;
+            } else {
+                minScore = score;
+                os = 1;
+            }
+        }
+        // 3.与上一页最小分数相同时，偏移量要累加
+        if (max != null && minScore == max) {
+            os += offset;
+        }
+        // 4.批量查询博文、作者和点赞状态
+        ScoreScrollResult result = new ScoreScrollResult();
+        result.setList(hydrateBlogs(ids));
+        result.setMinScore(minScore);
+        result.setOffset(os);
+        return Result.ok(result);
+    }
+
+    /**
+     * 按id批量查询博文并填充作者和点赞状态
+     * @param ids
+     * @return 按ids顺序
+     */
+    private List<Blog> hydrateBlogs(List<Long> ids) {
+        return blogHydrator.loadByIds(ids, this::listByIds);
     }
 
     /**
@@ -158,6 +441,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
+        //布隆过滤器判断一定不存在
+        if (!cacheClient.mightContain(CACHE_BLOG_KEY, id)){
+            return Result.fail("笔记不存在");
+        }
         //查询博文id
         Blog blog = getById(id);
         //判断是否存在
@@ -165,10 +452,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             //不存在则返回错误
             return Result.fail("笔记不存在");
         }
-        //查询博文作者
-        queryBlogUser(blog);
-        //查询是否被点赞
-        isBlogLiked(blog);
+        //查询博文作者和是否被点赞
+        blogHydrator.hydrate(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
@@ -179,7 +464,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogLikes(Long id) {
-        String key = BLOG_LIKED_KEY + id;
+        String key = BlogLikeSegments.likedKey(id, likeSegments);
         //1.查询点赞排行榜前排用户
         Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
         if (top5 == null || top5.isEmpty()){
@@ -207,8 +492,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogByUserId(Integer count, Long id) {
         //查询分页数据
         Page<Blog> page = query().eq("user_id", id).page(new Page<>(count, MAX_PAGE_SIZE));
-        //得到博文数据
+        //得到博文数据，批量填充作者和点赞状态
         List<Blog> records = page.getRecords();
+        blogHydrator.hydrate(records);
         return Result.ok(records);
     }
 
@@ -222,61 +508,43 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogOfFollow(Long max, Integer offset) {
         //1. 查询当前用户id
         Long userId = UserHolder.getUser().getId();
-        //2. 拼接key
-        String key = FEED_KEY + userId;
-        //3. 去redis中查询有序集合（Sorted Set）
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.
-                opsForZSet().reverseRangeByScoreWithScores(key, 0, max, offset, 2);
-        if (typedTuples == null || typedTuples.isEmpty()){
+        //2. 记录活跃，收件箱已被清除时重建
+        feedRetention.touch(userId);
+        //3. 合并收件箱和所关注拉模式作者的发件箱，优先使用预取的结果
+        ScrollResult result = feedReader.page(userId, max, offset, feedPageSize);
+        @SuppressWarnings("unchecked")
+        List<Long> ids = (List<Long>) result.getList();
+        if (ids.isEmpty()){
             return Result.ok();
         }
-        // 4.解析数据：blogId、minTime（时间戳）、offset
-        List<Long> ids = new ArrayList<>(typedTuples.size());
-        long minTime = 0; // 2
-        int os = 1; // 2
-        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) { // 5 4 4 2 2
-            // 4.1.获取id
-            ids.add(Long.valueOf(Objects.requireNonNull(tuple.getValue())));
-            // 4.2.获取分数(时间戳）
-            long time = Objects.requireNonNull(tuple.getScore()).longValue();
-            if(time == minTime){
-                os++;
-            }else{
-                minTime = time;
-                os = 1;
-            }
-        }
-        //5. 根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id",ids).last("ORDER BY FIELD(id," + idStr +")").list();
-        blogs.forEach((item) -> {
-            //5.1 查询blog有关的用户
-            queryBlogUser(item);
-            //5.2 查询博文是否被点赞
-            isBlogLiked(item);
-        });
-        //6. 封装并返回
-        ScrollResult result = new ScrollResult();
-        result.setList(blogs);
-        result.setOffset(os);
-        result.setMinTime(minTime);
+        //4. 异步预取下一页
+        prefetchFeed(userId, result);
+        //5. 根据id批量查询blog，填充作者和点赞状态
+        result.setList(hydrateBlogs(ids));
         return Result.ok(result);
     }
 
     /**
-     * 查询博文是否被点赞
-     * @param blog
+     * 预取关注流下一页的博文id并预热博文缓存，队列满时放弃
+     * @param userId
+     * @param current 当前页，list为博文id
      */
-    private void isBlogLiked(Blog blog) {
-        // 1.获取登录用户
-        UserDTO user = UserHolder.getUser();
-        if (user == null){
+    private void prefetchFeed(Long userId, ScrollResult current) {
+        if (!feedPrefetchEnabled || current.getList().size() < feedPageSize) {
             return;
         }
-        Long userId = user.getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+        ScrollResult cursor = new ScrollResult();
+        cursor.setMinTime(current.getMinTime());
+        cursor.setOffset(current.getOffset());
+        feedPrefetchExecutor.execute(() -> {
+            try {
+                List<Long> next = feedReader.prefetch(userId, cursor, feedPageSize);
+                if (!next.isEmpty()) {
+                    blogHydrator.preload(next, this::listByIds);
+                }
+            } catch (Exception e) {
+                log.warn("预取关注流失败:{}", userId, e);
+            }
+        });
     }
 }
@@ -0,0 +1,254 @@
+package com.example.service.impl;
+
+import com.example.entity.Follow;
+import com.example.service.IFollowService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.example.utils.RedisConstants.FEED_EVICTED_KEY;
+import static com.example.utils.RedisConstants.FEED_FANOUT_KEY;
+import static com.example.utils.RedisConstants.FEED_FANOUT_PENDING_KEY;
+import static com.example.utils.RedisConstants.FEED_FANOUT_TTL;
+import static com.example.utils.RedisConstants.FEED_KEY;
+import static com.example.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.example.utils.RedisConstants.FEED_PULL_AUTHORS_KEY;
+import static com.example.utils.RedisConstants.LOCK_FEED_FANOUT_KEY;
+
+/**
+ * 博文推送到粉丝收件箱的异步任务
+ * 粉丝按tb_follow.id分批读取，每批一个pipeline写入收件箱并记录进度，
+ * 进度保存在redis，节点重启或任务被拒绝后由定时任务从上次的位置继续。
+ * 关注关系先写redis再批量同步到数据库，推送时按尚未同步的关注变化修正数据库中的粉丝。
+ * 粉丝数达到阈值的作者不推送，博文只写入作者发件箱，由FeedReader读取时合并
+ */
+@Slf4j
+@Component
+public class FeedFanout {
+    private static final String FIELD_AUTHOR = "authorId";
+    private static final String FIELD_TIME = "time";
+    private static final String FIELD_CURSOR = "cursor";
+    private static final String FIELD_PUSHED = "pushed";
+    private static final String FIELD_STATUS = "status";
+    private static final String STATUS_RUNNING = "running";
+    private static final String STATUS_DONE = "done";
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private ThreadPoolTaskExecutor feedFanoutExecutor;
+    @Value("${feed.fanout.chunk-size:1000}")
+    private int chunkSize;
+    @Value("${feed.push.follower-threshold:5000}")
+    private int pushThreshold;
+    @Value("${feed.outbox.max-size:1000}")
+    private int outboxMaxSize;
+    @Value("${feed.inbox.max-size:500}")
+    private int inboxMaxSize;
+
+    /**
+     * 发布博文：拉模式作者写入发件箱，其它作者推送给全部粉丝
+     * @param blogId
+     * @param authorId
+     * @param time
+     */
+    public void publish(Long blogId, Long authorId, long time) {
+        if (!isPullAuthor(authorId)) {
+            submit(blogId, authorId, time);
+            return;
+        }
+        //写入发件箱并只保留最新的outboxMaxSize条
+        String key = FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.zAdd(key, time, blogId.toString());
+            stringConnection.zRemRange(key, 0, -outboxMaxSize - 1);
+            return null;
+        });
+    }
+
+    /**
+     * 是否为拉模式作者。粉丝数达到阈值后一直保持拉模式，
+     * 否则粉丝数回落时发件箱中未推送过的博文会从关注流中消失
+     * @param authorId
+     * @return
+     */
+    private boolean isPullAuthor(Long authorId) {
+        String author = authorId.toString();
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_PULL_AUTHORS_KEY, author))) {
+            return true;
+        }
+        //粉丝数由关注时的lua维护，未初始化时才查库
+        long followers = followService.countFollowers(authorId);
+        if (followers < pushThreshold) {
+            return false;
+        }
+        stringRedisTemplate.opsForSet().add(FEED_PULL_AUTHORS_KEY, author);
+        return true;
+    }
+
+    /**
+     * 登记推送任务并异步执行，立即返回
+     * @param blogId
+     * @param authorId
+     * @param time 收件箱中的分数，重试时保持不变
+     */
+    public void submit(Long blogId, Long authorId, long time) {
+        String key = FEED_FANOUT_KEY + blogId;
+        Map<String, String> progress = new HashMap<>(8);
+        progress.put(FIELD_AUTHOR, authorId.toString());
+        progress.put(FIELD_TIME, String.valueOf(time));
+        progress.put(FIELD_CURSOR, "0");
+        progress.put(FIELD_PUSHED, "0");
+        progress.put(FIELD_STATUS, STATUS_RUNNING);
+        stringRedisTemplate.opsForHash().putAll(key, progress);
+        stringRedisTemplate.opsForSet().add(FEED_FANOUT_PENDING_KEY, blogId.toString());
+        execute(blogId);
+    }
+
+    /**
+     * 查询推送进度
+     * @param blogId
+     * @return 不存在返回空map
+     */
+    public Map<Object, Object> progress(Long blogId) {
+        return stringRedisTemplate.opsForHash().entries(FEED_FANOUT_KEY + blogId);
+    }
+
+    /**
+     * 定时继续未完成的推送任务，正在其它线程或节点执行的任务会因拿不到锁而跳过
+     */
+    @Scheduled(fixedDelayString = "${feed.fanout.resume-interval-ms:30000}")
+    public void resumePending() {
+        Set<String> pending = stringRedisTemplate.opsForSet().members(FEED_FANOUT_PENDING_KEY);
+        if (pending == null) {
+            return;
+        }
+        for (String blogId : pending) {
+            execute(Long.valueOf(blogId));
+        }
+    }
+
+    private void execute(Long blogId) {
+        try {
+            feedFanoutExecutor.execute(() -> run(blogId));
+        } catch (RejectedExecutionException e) {
+            log.warn("推送任务被拒绝，稍后继续:{}", blogId);
+        }
+    }
+
+    /**
+     * 从上次的位置继续推送，同一博文同时只有一个线程执行
+     * @param blogId
+     */
+    private void run(Long blogId) {
+        RLock lock = redissonClient.getLock(LOCK_FEED_FANOUT_KEY + blogId);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            String key = FEED_FANOUT_KEY + blogId;
+            Map<Object, Object> progress = stringRedisTemplate.opsForHash().entries(key);
+            if (progress.isEmpty() || STATUS_DONE.equals(progress.get(FIELD_STATUS))) {
+                stringRedisTemplate.opsForSet().remove(FEED_FANOUT_PENDING_KEY, blogId.toString());
+                return;
+            }
+            Long authorId = Long.valueOf((String) progress.get(FIELD_AUTHOR));
+            String time = (String) progress.get(FIELD_TIME);
+            long cursor = Long.parseLong((String) progress.get(FIELD_CURSOR));
+            //0.尚未同步到数据库的关注和取关，数据库中的粉丝滞后于redis
+            Map<Long, Boolean> pending = followService.queryPendingFollowers(authorId);
+            List<Follow> follows;
+            do {
+                //1.按tb_follow.id顺序读取一批粉丝，跳过已取关的
+                follows = followService.query().select("id", "user_id")
+                        .eq("follow_user_id", authorId).gt("id", cursor)
+                        .orderByAsc("id").last("limit " + chunkSize).list();
+                if (follows.isEmpty()) {
+                    break;
+                }
+                cursor = follows.get(follows.size() - 1).getId();
+                List<Long> followers = follows.stream().map(Follow::getUserId)
+                        .filter(userId -> !Boolean.FALSE.equals(pending.get(userId)))
+                        .collect(Collectors.toList());
+                //2.一个pipeline写入这批粉丝的收件箱并记录进度，重放时ZADD幂等
+                pushChunk(key, blogId.toString(), Double.parseDouble(time), followers, cursor);
+            } while (follows.size() >= chunkSize);
+            //3.推送给还未同步到数据库的新粉丝，已在数据库中的重复写入不影响结果
+            List<Long> newFollowers = pending.entrySet().stream().filter(Map.Entry::getValue)
+                    .map(Map.Entry::getKey).collect(Collectors.toList());
+            if (!newFollowers.isEmpty()) {
+                pushChunk(key, blogId.toString(), Double.parseDouble(time), newFollowers, cursor);
+            }
+            //4.完成
+            stringRedisTemplate.opsForHash().put(key, FIELD_STATUS, STATUS_DONE);
+            stringRedisTemplate.expire(key, FEED_FANOUT_TTL, TimeUnit.HOURS);
+            stringRedisTemplate.opsForSet().remove(FEED_FANOUT_PENDING_KEY, blogId.toString());
+            log.debug("博文{}推送完成，粉丝位置{}", blogId, cursor);
+        } catch (Exception e) {
+            log.error("博文{}推送失败，稍后继续", blogId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void pushChunk(String progressKey, String blogId, double time, List<Long> followers, long cursor) {
+        //1.收件箱已被清除的粉丝不推送，下次读取时重建
+        List<Object> evicted = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long follower : followers) {
+                stringConnection.sIsMember(FEED_EVICTED_KEY, follower.toString());
+            }
+            return null;
+        });
+        List<Long> targets = new ArrayList<>(followers.size());
+        for (int i = 0; i < followers.size(); i++) {
+            if (!Boolean.TRUE.equals(evicted.get(i))) {
+                targets.add(followers.get(i));
+            }
+        }
+        //2.写入收件箱并裁剪到inboxMaxSize条，进度只计实际写入的收件箱
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long target : targets) {
+                String key = FEED_KEY + target;
+                stringConnection.zAdd(key, time, blogId);
+                stringConnection.zRemRange(key, 0, -inboxMaxSize - 1);
+            }
+            stringConnection.hSet(progressKey, FIELD_CURSOR, String.valueOf(cursor));
+            stringConnection.hIncrBy(progressKey, FIELD_PUSHED, targets.size());
+            return null;
+        });
+    }
+
+    /**
+     * 收件箱和发件箱中博文的分数：发布时间的毫秒时间戳
+     * 推送和重建收件箱都由博文的create_time计算，保证两者顺序一致
+     * @param createTime
+     * @return
+     */
+    public static long score(LocalDateTime createTime) {
+        return createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.service.impl;
+
+import com.example.dto.ScrollResult;
+import com.example.service.IFollowService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.utils.RedisConstants.FEED_KEY;
+import static com.example.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.example.utils.RedisConstants.FEED_PULL_AUTHORS_KEY;
+import static com.example.utils.RedisConstants.FOLLOW_USER;
+
+/**
+ * 关注流读取：用户收件箱和所关注的拉模式作者的发件箱做k路归并
+ * 各来源在一个pipeline中按 score<=max 各取 offset+count 条，按时间倒序、同一时间按博文id倒序
+ * （与ZREVRANGEBYSCORE的顺序一致）归并去重，跳过前offset条后取count条，
+ * 游标仍为上一页的最小时间和该时间已读的条数。
+ * 预取的下一页保存在本地，同一用户以相同游标请求时直接使用
+ */
+@Component
+public class FeedReader {
+    private static final Comparator<ZSetOperations.TypedTuple<String>> ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>, Double>comparing(ZSetOperations.TypedTuple::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue).reversed();
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+    @Value("${feed.prefetch.ttl-seconds:30}")
+    private long prefetchTtlSeconds;
+    @Value("${feed.prefetch.maximum-size:10000}")
+    private long prefetchMaximumSize;
+    /**
+     * userId:max:offset:count -> 预取的一页，取出后移除
+     */
+    private Cache<String, ScrollResult> prefetched;
+
+    @PostConstruct
+    private void init() {
+        prefetched = Caffeine.newBuilder()
+                .maximumSize(prefetchMaximumSize)
+                .expireAfterWrite(prefetchTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 读取一页，优先使用预取的结果
+     * @param userId
+     * @param max
+     * @param offset
+     * @param count
+     * @return 同scroll
+     */
+    public ScrollResult page(Long userId, long max, int offset, int count) {
+        String key = pageKey(userId, max, offset, count);
+        ScrollResult result = prefetched.getIfPresent(key);
+        if (result == null) {
+            return scroll(userId, max, offset, count);
+        }
+        prefetched.invalidate(key);
+        return result;
+    }
+
+    /**
+     * 预取上一页之后的一页并保存在本地
+     * @param userId
+     * @param previous 上一页
+     * @param count
+     * @return 预取到的博文id
+     */
+    public List<Long> prefetch(Long userId, ScrollResult previous, int count) {
+        long max = previous.getMinTime();
+        int offset = previous.getOffset();
+        ScrollResult result = scroll(userId, max, offset, count);
+        @SuppressWarnings("unchecked")
+        List<Long> ids = new ArrayList<>((List<Long>) result.getList());
+        prefetched.put(pageKey(userId, max, offset, count), result);
+        return ids;
+    }
+
+    private static String pageKey(Long userId, long max, int offset, int count) {
+        return userId + ":" + max + ":" + offset + ":" + count;
+    }
+
+    /**
+     * 滚动读取关注流
+     * @param userId
+     * @param max 上一页的最小时间，第一页为当前时间
+     * @param offset 上一页中与最小时间相同的条数
+     * @param count 每页条数
+     * @return list为博文id，没有更多时list为空
+     */
+    public ScrollResult scroll(Long userId, long max, int offset, int count) {
+        //1.收件箱和拉模式作者的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        for (String author : pullAuthors(userId)) {
+            keys.add(FEED_OUTBOX_KEY + author);
+        }
+        //2.一个pipeline读取各来源的前offset+count条
+        List<Object> ranges = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String key : keys) {
+                stringConnection.zRevRangeByScoreWithScores(key, 0, max, 0, offset + count);
+            }
+            return null;
+        });
+        //3.k路归并
+        List<Long> ids = new ArrayList<>(count);
+        long minTime = max;
+        int os = offset;
+        PriorityQueue<Source> queue = new PriorityQueue<>(keys.size(), (a, b) -> ORDER.compare(a.head, b.head));
+        for (Object range : ranges) {
+            Source source = Source.of(range);
+            if (source != null) {
+                queue.add(source);
+            }
+        }
+        Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        while (!queue.isEmpty() && ids.size() < count) {
+            Source source = queue.poll();
+            ZSetOperations.TypedTuple<String> tuple = source.head;
+            if (source.next()) {
+                queue.add(source);
+            }
+            //3.1.同一博文可能同时在收件箱和发件箱中
+            if (!seen.add(tuple.getValue())) {
+                continue;
+            }
+            //3.2.跳过上一页已读的
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            //3.3.记录最小时间及其条数，整页时间相同时累加上一页的条数
+            ids.add(Long.valueOf(tuple.getValue()));
+            long time = tuple.getScore().longValue();
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        ScrollResult result = new ScrollResult();
+        result.setList(ids);
+        result.setMinTime(minTime);
+        result.setOffset(os);
+        return result;
+    }
+
+    /**
+     * 当前用户关注的拉模式作者，关注集合和拉模式作者集合在redis求交集
+     * @param userId
+     * @return
+     */
+    private Collection<String> pullAuthors(Long userId) {
+        followService.ensureFollowsLoaded(userId);
+        Set<String> authors = stringRedisTemplate.opsForSet().intersect(FOLLOW_USER + userId, FEED_PULL_AUTHORS_KEY);
+        return authors == null ? Collections.<String>emptySet() : authors;
+    }
+
+    /**
+     * 一个来源的有序结果及当前位置
+     */
+    private static class Source {
+        private final Iterator<ZSetOperations.TypedTuple<String>> iterator;
+        private ZSetOperations.TypedTuple<String> head;
+
+        private Source(Iterator<ZSetOperations.TypedTuple<String>> iterator) {
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+
+        @SuppressWarnings("unchecked")
+        static Source of(Object range) {
+            if (!(range instanceof Collection) || ((Collection<?>) range).isEmpty()) {
+                return null;
+            }
+            return new Source(((Collection<ZSetOperations.TypedTuple<String>>) range).iterator());
+        }
+
+        boolean next() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            head = iterator.next();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.service.impl;
+
+import com.example.entity.Blog;
+import com.example.service.IBlogService;
+import com.example.service.IFollowService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.utils.RedisConstants.FEED_EVICTED_KEY;
+import static com.example.utils.RedisConstants.FEED_KEY;
+import static com.example.utils.RedisConstants.FEED_PULL_AUTHORS_KEY;
+import static com.example.utils.RedisConstants.FOLLOW_LOADED_MEMBER;
+import static com.example.utils.RedisConstants.FOLLOW_USER;
+import static com.example.utils.RedisConstants.LOCK_FEED_SWEEP_KEY;
+import static com.example.utils.RedisConstants.USER_ACTIVE_KEY;
+
+/**
+ * 收件箱保留策略
+ * user:active记录用户最近一次登录或读取关注流的时间，长期不活跃用户的收件箱被清除并记入feed:evicted，
+ * 推送时跳过这些用户，下次读取关注流时按所关注作者的最新博文重建
+ */
+@Slf4j
+@Component
+public class FeedRetention {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+    @Lazy
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private RedissonClient redissonClient;
+    @Value("${feed.inbox.max-size:500}")
+    private int inboxMaxSize;
+    @Value("${feed.inbox.inactive-days:30}")
+    private int inactiveDays;
+    @Value("${feed.inbox.sweep-batch-size:1000}")
+    private int sweepBatchSize;
+
+    /**
+     * 记录用户活跃，收件箱已被清除时重建
+     * @param userId
+     */
+    public void touch(Long userId) {
+        String user = userId.toString();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.zAdd(USER_ACTIVE_KEY, System.currentTimeMillis(), user);
+            stringConnection.sRem(FEED_EVICTED_KEY, user);
+            return null;
+        });
+        if (Long.valueOf(1L).equals(results.get(1))) {
+            rebuild(userId);
+        }
+    }
+
+    /**
+     * 按所关注的推模式作者的最新博文重建收件箱，拉模式作者的博文读取时从发件箱合并
+     * @param userId
+     */
+    private void rebuild(Long userId) {
+        //1.从redis的关注集合查询关注的作者（数据库异步同步，可能滞后），去掉拉模式作者和表示已加载的成员
+        followService.ensureFollowsLoaded(userId);
+        Set<String> authors = stringRedisTemplate.opsForSet().difference(FOLLOW_USER + userId, FEED_PULL_AUTHORS_KEY);
+        if (authors == null) {
+            return;
+        }
+        authors.remove(FOLLOW_LOADED_MEMBER);
+        if (authors.isEmpty()) {
+            return;
+        }
+        //2.查询这些作者最新的inboxMaxSize篇博文
+        List<Blog> blogs = blogService.query().select("id", "create_time").in("user_id", authors)
+                .orderByDesc("create_time").last("limit " + inboxMaxSize).list();
+        if (blogs.isEmpty()) {
+            return;
+        }
+        //3.写入收件箱，分数与推送时相同
+        String key = FEED_KEY + userId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                stringConnection.zAdd(key, FeedFanout.score(blog.getCreateTime()), blog.getId().toString());
+            }
+            stringConnection.zRemRange(key, 0, -inboxMaxSize - 1);
+            return null;
+        });
+        log.debug("用户{}的收件箱已重建，{}篇博文", userId, blogs.size());
+    }
+
+    /**
+     * 清除不活跃用户的收件箱，多节点只有一个执行
+     */
+    @Scheduled(fixedDelayString = "${feed.inbox.sweep-interval-ms:3600000}")
+    public void sweepInactive() {
+        RLock lock = redissonClient.getLock(LOCK_FEED_SWEEP_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(inactiveDays);
+            long evicted = 0;
+            Set<String> users;
+            do {
+                //1.按活跃时间从早到晚取一批不活跃用户
+                users = stringRedisTemplate.opsForZSet().rangeByScore(USER_ACTIVE_KEY, 0, cutoff, 0, sweepBatchSize);
+                if (users == null || users.isEmpty()) {
+                    break;
+                }
+                //2.删除收件箱，记为已清除，移出活跃集合
+                Set<String> batch = users;
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    for (String user : batch) {
+                        stringConnection.del(FEED_KEY + user);
+                        stringConnection.sAdd(FEED_EVICTED_KEY, user);
+                    }
+                    stringConnection.zRem(USER_ACTIVE_KEY, batch.toArray(new String[0]));
+                    return null;
+                });
+                evicted += users.size();
+            } while (users.size() >= sweepBatchSize);
+            if (evicted > 0) {
+                log.info("清除不活跃用户收件箱{}个", evicted);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.example.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.example.dto.CursorResult;
+import com.example.dto.FollowCountDTO;
 import com.example.dto.Result;
 import com.example.dto.UserDTO;
 import com.example.entity.Follow;
@@ -9,32 +13,105 @@ import com.example.mapper.FollowMapper;
 import com.example.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.example.service.IUserService;
+import com.example.utils.CacheClient;
 import com.example.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.example.utils.RedisConstants.CACHE_USER_KEY;
+import static com.example.utils.RedisConstants.CACHE_USER_TTL;
+import static com.example.utils.RedisConstants.FOLLOWER_COUNT_KEY;
+import static com.example.utils.RedisConstants.FOLLOW_DIRTY_FLUSHING_KEY;
+import static com.example.utils.RedisConstants.FOLLOW_DIRTY_KEY;
+import static com.example.utils.RedisConstants.FOLLOW_FLUSHING_KEY;
+import static com.example.utils.RedisConstants.FOLLOW_LOADED_MEMBER;
+import static com.example.utils.RedisConstants.FOLLOW_PENDING_KEY;
 import static com.example.utils.RedisConstants.FOLLOW_USER;
+import static com.example.utils.RedisConstants.LOCK_FOLLOW_FLUSH_KEY;
+import static com.example.utils.RedisConstants.LOCK_FOLLOW_RECONCILE_KEY;
 
 /**
  * <p>
  *  服务实现类
  * </p>
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private IUserService userService;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private CacheClient cacheClient;
+    @Value("${follow.flush-batch-size:500}")
+    private int flushBatchSize;
+    @Value("${follow.count.reconcile-batch-size:500}")
+    private int reconcileBatchSize;
+    @Value("${follow.common.page-size:20}")
+    private int commonPageSize;
+    @Value("${follow.common.max-page-size:100}")
+    private int commonMaxPageSize;
+    @Value("${follow.common.scan-count:500}")
+    private int commonScanCount;
+    @Value("${follow.common.max-scan-batches:20}")
+    private int commonMaxScanBatches;
+    //关注、取关的lua脚本
+    private static final DefaultRedisScript<Long> FOLLOW_SCRIPT;
+    //加载关注集合的lua脚本
+    private static final DefaultRedisScript<Long> FOLLOW_LOAD_SCRIPT;
+    //取出待同步关注关系的lua脚本
+    private static final DefaultRedisScript<List> FOLLOW_FLUSH_SCRIPT;
+    //用数据库粉丝数设置redis粉丝数的lua脚本
+    private static final DefaultRedisScript<Long> FOLLOW_COUNT_SCRIPT;
+    //分批计算共同关注的lua脚本
+    private static final DefaultRedisScript<List> COMMON_FOLLOWS_SCRIPT;
+    static {
+        FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SCRIPT.setLocation(new ClassPathResource("follow.lua"));
+        FOLLOW_SCRIPT.setResultType(Long.class);
+        FOLLOW_LOAD_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_LOAD_SCRIPT.setLocation(new ClassPathResource("follow_load.lua"));
+        FOLLOW_LOAD_SCRIPT.setResultType(Long.class);
+        FOLLOW_FLUSH_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_FLUSH_SCRIPT.setLocation(new ClassPathResource("follow_flush.lua"));
+        FOLLOW_FLUSH_SCRIPT.setResultType(List.class);
+        FOLLOW_COUNT_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_COUNT_SCRIPT.setLocation(new ClassPathResource("follow_count.lua"));
+        FOLLOW_COUNT_SCRIPT.setResultType(Long.class);
+        COMMON_FOLLOWS_SCRIPT = new DefaultRedisScript<>();
+        COMMON_FOLLOWS_SCRIPT.setLocation(new ClassPathResource("common_follows.lua"));
+        COMMON_FOLLOWS_SCRIPT.setResultType(List.class);
+    }
+
     /**
      * 判断是否关注，关注则取关，未关注则新增关注
+     * 先写redis的关注集合并记录待同步的最终状态，数据库由定时任务批量同步
      * @param followUserId
      * @param isFollow
      * @return
@@ -43,31 +120,28 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result follow(Long followUserId, Boolean isFollow) {
         //1.获取用户id
         Long userId = UserHolder.getUser().getId();
-        String key = FOLLOW_USER + userId;
-        //2.判断是否关注
-        if (isFollow){
-            //2.1 是，新增数据
-            Follow follow = new Follow();
-            follow.setUserId(userId);
-            follow.setFollowUserId(followUserId);
-            boolean isSuccess = save(follow);
-            if (isSuccess){
-                //2.2 把关注用户的id，放入redis的set集合
-                stringRedisTemplate.opsForSet().add(key , followUserId.toString());
-            }
-        }else {
-            // 3.取关，删除 delete from tb_follow where user_id = ? and follow_user_id = ?
-            boolean isSuccess = remove(new QueryWrapper<Follow>()
-                    .eq("user_id", userId).eq("follow_user_id", followUserId));
-            if (isSuccess) {
-                // 把关注用户的id从Redis集合中移除
-                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
-            }
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        //2.执行lua，关注集合未加载时先从数据库加载再执行一次
+        Long result = executeFollow(userId, followUserId, isFollow);
+        if (result != null && result == -1) {
+            ensureFollowsLoaded(userId);
+            executeFollow(userId, followUserId, isFollow);
         }
         return Result.ok();
     }
+
+    private Long executeFollow(Long userId, Long followUserId, Boolean isFollow) {
+        return stringRedisTemplate.execute(
+                FOLLOW_SCRIPT,
+                Arrays.asList(FOLLOW_USER + userId, FOLLOW_PENDING_KEY, FOLLOWER_COUNT_KEY, FOLLOW_DIRTY_KEY),
+                userId.toString(), followUserId.toString(), BooleanUtil.isTrue(isFollow) ? "1" : "0"
+        );
+    }
+
     /**
-     * 查询是否关注
+     * 查询是否关注，读redis的关注集合
      * @param followUserId
      * @return
      */
@@ -75,31 +149,303 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result isFollow(Long followUserId) {
         // 1. 获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询是否关注 select count(*) from tb_follow where user_id = ? and follow_user_id = ?
-        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
-        // 3.判断
-        return Result.ok(count > 0);
+        String key = FOLLOW_USER + userId;
+        // 2. 一次往返查询集合是否已加载及是否关注
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.sIsMember(key, FOLLOW_LOADED_MEMBER);
+            stringConnection.sIsMember(key, followUserId.toString());
+            return null;
+        });
+        if (Boolean.TRUE.equals(results.get(0))) {
+            return Result.ok(Boolean.TRUE.equals(results.get(1)));
+        }
+        // 3. 未加载则加载后再查询
+        ensureFollowsLoaded(userId);
+        return Result.ok(BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(key, followUserId.toString())));
+    }
+
+    /**
+     * 关注集合未加载时从数据库加载，集合中的成员"0"表示已加载
+     * @param userId
+     */
+    @Override
+    public void ensureFollowsLoaded(Long userId) {
+        String key = FOLLOW_USER + userId;
+        if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(key, FOLLOW_LOADED_MEMBER))) {
+            return;
+        }
+        List<String> ids = listObjs(query().select("follow_user_id").eq("user_id", userId).getWrapper(),
+                Object::toString);
+        stringRedisTemplate.execute(FOLLOW_LOAD_SCRIPT, Collections.singletonList(key), ids.toArray());
+    }
+
+    /**
+     * 定时把关注关系的最终状态批量同步到数据库，多节点间用分布式锁保证只有一个节点在同步
+     */
+    @Scheduled(fixedDelayString = "${follow.flush-interval-ms:1000}")
+    public void flushFollows() {
+        RLock lock = redissonClient.getLock(LOCK_FOLLOW_FLUSH_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            //1.取出待同步的关注关系，上次未完成的会被重新取出
+            List<String> flushing = stringRedisTemplate.execute(FOLLOW_FLUSH_SCRIPT,
+                    Arrays.asList(FOLLOW_PENDING_KEY, FOLLOW_FLUSHING_KEY, FOLLOW_DIRTY_KEY, FOLLOW_DIRTY_FLUSHING_KEY));
+            if (flushing == null || flushing.isEmpty()) {
+                return;
+            }
+            //2.按最终状态分为关注和取关
+            List<Follow> follows = new ArrayList<>();
+            List<Follow> unfollows = new ArrayList<>();
+            for (int i = 0; i + 1 < flushing.size(); i += 2) {
+                String[] pair = flushing.get(i).split(":");
+                Follow follow = new Follow().setUserId(Long.valueOf(pair[0])).setFollowUserId(Long.valueOf(pair[1]));
+                ("1".equals(flushing.get(i + 1)) ? follows : unfollows).add(follow);
+            }
+            //3.分批写入数据库，INSERT IGNORE和DELETE重放时结果不变
+            for (List<Follow> batch : CollUtil.split(follows, flushBatchSize)) {
+                getBaseMapper().insertIgnoreBatch(batch);
+            }
+            for (List<Follow> batch : CollUtil.split(unfollows, flushBatchSize)) {
+                getBaseMapper().deleteBatch(batch);
+            }
+            //4.删除同步中的hash和用户集合，之后这些用户的粉丝数可以和数据库核对
+            stringRedisTemplate.delete(Arrays.asList(FOLLOW_FLUSHING_KEY, FOLLOW_DIRTY_FLUSHING_KEY));
+            log.debug("同步关注{}条，取关{}条", follows.size(), unfollows.size());
+        } catch (Exception e) {
+            log.error("同步关注关系失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 查询关注数和粉丝数，关注数为关注集合的大小，粉丝数由关注时的lua维护
+     * @param userId
+     * @return
+     */
+    @Override
+    public Result queryFollowCounts(Long userId) {
+        //1.一次往返查询关注集合是否已加载、集合大小和粉丝数
+        String key = FOLLOW_USER + userId;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.sIsMember(key, FOLLOW_LOADED_MEMBER);
+            stringConnection.sCard(key);
+            stringConnection.hGet(FOLLOWER_COUNT_KEY, userId.toString());
+            return null;
+        });
+        FollowCountDTO counts = new FollowCountDTO();
+        //2.关注数，去掉表示已加载的成员
+        if (Boolean.TRUE.equals(results.get(0))) {
+            counts.setFollowing((Long) results.get(1) - 1);
+        } else {
+            ensureFollowsLoaded(userId);
+            counts.setFollowing(stringRedisTemplate.opsForSet().size(key) - 1);
+        }
+        //3.粉丝数未初始化则查库并写入
+        Object followers = results.get(2);
+        counts.setFollowers(followers != null ? Long.valueOf(followers.toString()) : loadFollowerCount(userId));
+        return Result.ok(counts);
     }
 
+    /**
+     * 查询粉丝数，优先读redis中的计数
+     * @param userId
+     * @return
+     */
     @Override
-    public Result followCommons(Long id) {
-        // 1.获取当前用户
+    public long countFollowers(Long userId) {
+        Object followers = stringRedisTemplate.opsForHash().get(FOLLOWER_COUNT_KEY, userId.toString());
+        return followers != null ? Long.parseLong(followers.toString()) : loadFollowerCount(userId);
+    }
+
+    /**
+     * 尚未同步到数据库的粉丝变化，同步中的先读，待同步的更新，后者覆盖前者
+     * @param followUserId
+     * @return userId -> true关注/false取关
+     */
+    @Override
+    public Map<Long, Boolean> queryPendingFollowers(Long followUserId) {
+        Map<Long, Boolean> followers = new HashMap<>();
+        ScanOptions options = ScanOptions.scanOptions().match("*:" + followUserId).count(1000).build();
+        for (String key : Arrays.asList(FOLLOW_FLUSHING_KEY, FOLLOW_PENDING_KEY)) {
+            try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash().scan(key, options)) {
+                while (cursor.hasNext()) {
+                    Map.Entry<Object, Object> entry = cursor.next();
+                    String field = entry.getKey().toString();
+                    followers.put(Long.valueOf(field.substring(0, field.indexOf(':'))), "1".equals(entry.getValue()));
+                }
+            }
+        }
+        return followers;
+    }
+
+    /**
+     * 粉丝数未初始化时查库并写入redis
+     * @param userId
+     * @return
+     */
+    private long loadFollowerCount(Long userId) {
+        Map<Long, Long> dbCounts = countFollowersInDb(Collections.singletonList(userId));
+        storeFollowerCounts(dbCounts);
+        return dbCounts.get(userId);
+    }
+
+    /**
+     * 定时用数据库核对redis中的粉丝数，修正异常中断等原因造成的偏差
+     * 多节点只有一个执行；每批持有同步锁，保证核对期间没有进行中的同步，有未同步变化的用户由lua跳过
+     */
+    @Scheduled(fixedDelayString = "${follow.count.reconcile-interval-ms:600000}")
+    public void reconcileFollowerCounts() {
+        RLock reconcileLock = redissonClient.getLock(LOCK_FOLLOW_RECONCILE_KEY);
+        if (!reconcileLock.tryLock()) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(LOCK_FOLLOW_FLUSH_KEY);
+        long updated = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(reconcileBatchSize).build();
+        try (Cursor<Map.Entry<Object, Object>> cursor =
+                     stringRedisTemplate.opsForHash().scan(FOLLOWER_COUNT_KEY, options)) {
+            List<Long> batch = new ArrayList<>(reconcileBatchSize);
+            while (cursor.hasNext()) {
+                batch.add(Long.valueOf(cursor.next().getKey().toString()));
+                if (batch.size() < reconcileBatchSize && cursor.hasNext()) {
+                    continue;
+                }
+                lock.lock();
+                try {
+                    updated += storeFollowerCounts(countFollowersInDb(batch));
+                } finally {
+                    lock.unlock();
+                }
+                batch.clear();
+            }
+        } catch (Exception e) {
+            log.error("核对粉丝数失败", e);
+        } finally {
+            reconcileLock.unlock();
+        }
+        if (updated > 0) {
+            log.info("修正粉丝数{}个", updated);
+        }
+    }
+
+    /**
+     * 查询数据库中的粉丝数
+     * @param userIds
+     * @return 每个用户都有值，没有粉丝为0
+     */
+    private Map<Long, Long> countFollowersInDb(Collection<Long> userIds) {
+        Map<Long, Long> counts = new HashMap<>(userIds.size() * 2);
+        for (Long userId : userIds) {
+            counts.put(userId, 0L);
+        }
+        for (Map<String, Object> row : getBaseMapper().countFollowers(userIds)) {
+            counts.put(((Number) row.get("userId")).longValue(), ((Number) row.get("followers")).longValue());
+        }
+        return counts;
+    }
+
+    /**
+     * 写入粉丝数，有未同步变化的用户跳过
+     * @param counts
+     * @return 实际修改的个数
+     */
+    private long storeFollowerCounts(Map<Long, Long> counts) {
+        List<String> args = new ArrayList<>(counts.size() * 2);
+        for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+            args.add(entry.getKey().toString());
+            args.add(entry.getValue().toString());
+        }
+        Long updated = stringRedisTemplate.execute(FOLLOW_COUNT_SCRIPT,
+                Arrays.asList(FOLLOWER_COUNT_KEY, FOLLOW_DIRTY_KEY, FOLLOW_DIRTY_FLUSHING_KEY), args.toArray());
+        return updated == null ? 0 : updated;
+    }
+
+    /**
+     * 共同关注，按游标分页
+     * 在较小的关注集合上逐批SSCAN并在较大的集合中检查，取满一页或达到批数上限即返回，
+     * 游标为 SSCAN游标:该批中已返回的条数:遍历的是哪一方(0当前用户/1对方)
+     * @param id
+     * @param cursor
+     * @param count
+     * @return
+     */
+    @Override
+    public Result followCommons(Long id, String cursor, Integer count) {
+        // 1.获取当前用户，两个关注集合都需已加载
         Long userId = UserHolder.getUser().getId();
+        int limit = count == null || count <= 0 ? commonPageSize : Math.min(count, commonMaxPageSize);
+        ensureFollowsLoaded(userId);
+        ensureFollowsLoaded(id);
         String key = FOLLOW_USER + userId;
-        // 2.求交集
         String key2 = FOLLOW_USER + id;
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
-        if (intersect == null || intersect.isEmpty()) {
-            // 无交集
-            return Result.ok(Collections.emptyList());
-        }
-        // 3.解析id集合
-        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 4.查询用户
-        List<UserDTO> users = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
-        return Result.ok(users);
+        // 2.解析游标，第一页选择较小的集合遍历
+        String scanCursor = "0";
+        int skip = 0;
+        String side;
+        if (StrUtil.isBlank(cursor)) {
+            List<Object> sizes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                stringConnection.sCard(key);
+                stringConnection.sCard(key2);
+                return null;
+            });
+            side = (Long) sizes.get(0) <= (Long) sizes.get(1) ? "0" : "1";
+        } else {
+            String[] parts = cursor.split(":");
+            if (parts.length != 3 || !StrUtil.isNumeric(parts[0]) || !StrUtil.isNumeric(parts[1])
+                    || !("0".equals(parts[2]) || "1".equals(parts[2]))) {
+                return Result.fail("游标格式错误");
+            }
+            scanCursor = parts[0];
+            skip = Integer.parseInt(parts[1]);
+            side = parts[2];
+        }
+        List<String> keys = "0".equals(side) ? Arrays.asList(key, key2) : Arrays.asList(key2, key);
+        // 3.逐批遍历，直到取满一页、遍历结束或达到批数上限
+        List<Long> ids = new ArrayList<>(limit);
+        String next = null;
+        for (int batch = 0; batch < commonMaxScanBatches; batch++) {
+            List<String> common = stringRedisTemplate.execute(
+                    COMMON_FOLLOWS_SCRIPT, keys, scanCursor, String.valueOf(commonScanCount));
+            if (common == null || common.isEmpty()) {
+                break;
+            }
+            // 3.1.第一个元素为下一个游标，跳过这一批中上一页已返回的
+            int i = 1 + skip;
+            while (i < common.size() && ids.size() < limit) {
+                ids.add(Long.valueOf(common.get(i++)));
+            }
+            // 3.2.这一批没取完，下一页从这一批继续
+            if (i < common.size()) {
+                next = scanCursor + ":" + (i - 1) + ":" + side;
+                break;
+            }
+            // 3.3.遍历结束
+            scanCursor = common.get(0);
+            skip = 0;
+            if ("0".equals(scanCursor)) {
+                next = null;
+                break;
+            }
+            next = scanCursor + ":0:" + side;
+            if (ids.size() >= limit) {
+                break;
+            }
+        }
+        // 4.查询用户，走用户缓存
+        List<UserDTO> users = ids.isEmpty() ? Collections.emptyList() : cacheClient.queryBatchWithPassThrough(
+                CACHE_USER_KEY, ids, UserDTO.class,
+                userIds -> userService.listByIds(userIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList()),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
+        CursorResult result = new CursorResult();
+        result.setList(users);
+        result.setCursor(next);
+        return Result.ok(result);
     }
 }
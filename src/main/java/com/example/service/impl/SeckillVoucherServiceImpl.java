@@ -4,14 +4,102 @@ import com.example.entity.SeckillVoucher;
 import com.example.mapper.SeckillVoucherMapper;
 import com.example.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.example.utils.SeckillSegments;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
  * </p>
  */
 @Service
+@Slf4j
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    //每张秒杀券的库存分段数，需与VoucherOrderServiceImpl一致
+    @Value("${seckill.stock.segments:1}")
+    private int stockSegments;
+    //预热开始时间在该分钟数之内的秒杀券
+    @Value("${seckill.warm-up.lead-minutes:10}")
+    private long leadMinutes;
+
+    /**
+     * 按数量扣减库存
+     * @param voucherId
+     * @param count
+     * @return 库存不足时返回false
+     */
+    @Override
+    public boolean decreaseStock(Long voucherId, int count) {
+        return getBaseMapper().decreaseStock(voucherId, count) > 0;
+    }
+
+    /**
+     * 把秒杀券的库存和时间窗口写入redis，一次pipeline完成
+     * @param seckillVoucher
+     * @param overwriteStock 是否覆盖已有库存，预热时为false，避免覆盖进行中的秒杀
+     */
+    @Override
+    public void cacheSeckillVoucher(SeckillVoucher seckillVoucher, boolean overwriteStock) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        long begin = toEpochMilli(seckillVoucher.getBeginTime());
+        long end = toEpochMilli(seckillVoucher.getEndTime());
+        Map<String, String> window = new HashMap<>(2);
+        window.put("begin", String.valueOf(begin));
+        window.put("end", String.valueOf(end));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < stockSegments; i++) {
+                String stockKey = SeckillSegments.stockKey(voucherId, i, stockSegments);
+                String stock = String.valueOf(SeckillSegments.segmentStock(seckillVoucher.getStock(), i, stockSegments));
+                if (overwriteStock) {
+                    stringConnection.set(stockKey, stock);
+                } else {
+                    stringConnection.setNX(stockKey, stock);
+                }
+                //时间窗口在秒杀结束一天后过期
+                String windowKey = SeckillSegments.windowKey(voucherId, i, stockSegments);
+                stringConnection.hMSet(windowKey, window);
+                stringConnection.pExpireAt(windowKey, end + TimeUnit.DAYS.toMillis(1));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 定时预热即将开始的秒杀券，秒杀开始时库存和时间窗口已在redis中，不再访问数据库
+     */
+    @Scheduled(fixedDelayString = "${seckill.warm-up.interval-ms:60000}")
+    public void preloadUpcoming() {
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> upcoming = query()
+                .le("begin_time", now.plusMinutes(leadMinutes))
+                .gt("end_time", now)
+                .list();
+        for (SeckillVoucher seckillVoucher : upcoming) {
+            cacheSeckillVoucher(seckillVoucher, false);
+        }
+        if (!upcoming.isEmpty()) {
+            log.debug("预热秒杀券{}张", upcoming.size());
+        }
+    }
 
+    private long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
@@ -1,6 +1,6 @@
 package com.example.service.impl;
 
-import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.example.dto.Result;
 import com.example.entity.Shop;
@@ -17,9 +17,11 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.example.utils.RedisConstants.*;
 import static com.example.utils.SystemConstants.DEFAULT_PAGE_SIZE;
@@ -36,6 +38,30 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+
+    /**
+     * 用全部店铺id预加载布隆过滤器
+     */
+    @PostConstruct
+    private void initBloomFilter() {
+        cacheClient.initBloomFilter(CACHE_SHOP_KEY, lastId -> listObjs(query().select("id")
+                .gt("id", lastId).orderByAsc("id").last("limit " + cacheClient.bloomLoadBatch()).getWrapper(),
+                id -> ((Number) id).longValue()));
+    }
+
+    /**
+     * 新增商铺，同时加入布隆过滤器
+     * @param shop
+     * @return
+     */
+    @Override
+    public boolean save(Shop shop) {
+        boolean success = super.save(shop);
+        if (success) {
+            cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        }
+        return success;
+    }
     /**
      * 根据id查询商铺信息
      * @param id
@@ -74,8 +100,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //1，更新数据库
         this.updateById(shop);
-        //2，删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2，删除缓存，同时清除各节点的一级缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
         return Result.ok();
     }
 
@@ -133,9 +159,10 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr, distance);
         });
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        // 5.根据id批量查询Shop，缓存中的对象可能被共享，复制后再设置距离
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                .stream().map(shop -> BeanUtil.copyProperties(shop, Shop.class)).collect(Collectors.toList());
         for (Shop shop : shops) {
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
         }
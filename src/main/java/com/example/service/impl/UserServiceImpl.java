@@ -104,6 +104,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         stringRedisTemplate.opsForHash().putAll(tokenKey , stringObjectMap);
         //5.4,设置token有效期
         stringRedisTemplate.expire(tokenKey , LOGIN_USER_TTL , TimeUnit.MINUTES);
+        //记录活跃时间，长期不活跃用户的收件箱会被清除
+        stringRedisTemplate.opsForZSet().add(USER_ACTIVE_KEY, userDTO.getId().toString(), System.currentTimeMillis());
         //6,返回token
         return Result.ok(token);
     }
@@ -143,6 +145,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         stringRedisTemplate.opsForHash().putAll(tokenKey , stringObjectMap);
         //3.4,设置token有效期
         stringRedisTemplate.expire(tokenKey , LOGIN_USER_TTL , TimeUnit.MINUTES);
+        //记录活跃时间，长期不活跃用户的收件箱会被清除
+        stringRedisTemplate.opsForZSet().add(USER_ACTIVE_KEY, userDTO.getId().toString(), System.currentTimeMillis());
         //4,返回token
         return Result.ok(token);
     }
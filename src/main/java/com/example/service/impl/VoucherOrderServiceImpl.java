@@ -1,6 +1,9 @@
 package com.example.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.example.dto.Result;
 import com.example.entity.VoucherOrder;
 import com.example.mapper.VoucherOrderMapper;
@@ -8,27 +11,36 @@ import com.example.service.ISeckillVoucherService;
 import com.example.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.example.utils.RedisIdWorker;
+import com.example.utils.SeckillSegments;
+import com.example.utils.SeckillSoldOutCache;
 import com.example.utils.UserHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -45,89 +57,365 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedisIdWorker redisIdWorker;
     @Resource
-    private RedissonClient redissonClient;
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private SeckillSoldOutCache seckillSoldOutCache;
+    //延迟注入自身代理，消费线程启动时无需等待第一次秒杀请求
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
+    //每个节点的消费者线程数
+    @Value("${seckill.order.consumers:4}")
+    private int consumerCount;
+    //每次从消息队列读取的订单数
+    @Value("${seckill.order.batch-size:50}")
+    private int batchSize;
+    //每张秒杀券的库存分段数，1表示不分段
+    @Value("${seckill.stock.segments:1}")
+    private int stockSegments;
+    //已售完的库存段在本地记录的时长
+    @Value("${seckill.stock.empty-segment-ttl-ms:1000}")
+    private long emptySegmentTtlMs;
+    @Value("${server.port:8080}")
+    private int serverPort;
+    //pending消息空闲超过该时长才会被认领
+    @Value("${seckill.order.reclaim.min-idle-ms:30000}")
+    private long reclaimMinIdleMs;
+    @Value("${seckill.order.reclaim.batch-size:100}")
+    private int reclaimBatchSize;
+    //最大投递次数，超过则转入死信队列
+    @Value("${seckill.order.reclaim.max-deliveries:5}")
+    private long maxDeliveries;
+    @Value("${seckill.order.reclaim.interval-ms:5000}")
+    private long reclaimIntervalMs;
+    @Value("${seckill.order.reclaim.max-interval-ms:60000}")
+    private long reclaimMaxIntervalMs;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ThreadPoolTaskExecutor seckillOrderExecutor;
+    @Resource
+    private TaskScheduler taskScheduler;
+    private String reclaimerName;
+    //关闭时置为false，消费者处理完当前批次后退出
+    private volatile boolean running = true;
+    //pending消息数及最早一条的等待时长，供监控采集
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong oldestPendingAgeMs = new AtomicLong();
+    private Counter deadLetterCounter;
+    //已知售完的库存段，voucherId:段号，归属段售完后跳过这些段，减少访问redis的次数
+    private Cache<String, Boolean> emptySegments;
     //类加载时自动提交任务
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        queueNames = SeckillSegments.streamKeys(stockSegments);
+        queueNames.forEach(this::createGroupIfAbsent);
+        loadScript(SECKILL_SCRIPT);
+        loadScript(SECKILL_TAKE_SCRIPT);
+        emptySegments = Caffeine.newBuilder()
+                .expireAfterWrite(emptySegmentTtlMs, TimeUnit.MILLISECONDS)
+                .build();
+        //消费者名称：主机名:端口-序号，保证每个节点的每个线程唯一且重启后不变
+        String consumerPrefix = NetUtil.getLocalHostName() + ":" + serverPort + "-";
+        //每个段的消息队列至少有一个消费者：消费者多于队列时多个消费者共享一个队列，少于队列时一个消费者轮流读取多个队列
+        for (int i = 0; i < consumerCount; i++) {
+            List<String> streams = new ArrayList<>();
+            if (consumerCount >= queueNames.size()) {
+                streams.add(queueNames.get(i % queueNames.size()));
+            } else {
+                for (int j = i; j < queueNames.size(); j += consumerCount) {
+                    streams.add(queueNames.get(j));
+                }
+            }
+            seckillOrderExecutor.execute(new VoucherOrderHandler(consumerPrefix + i, streams));
+        }
+        //监控指标
+        Gauge.builder("seckill.orders.pending", pendingCount, AtomicLong::get)
+                .description("订单消息队列中已投递未ACK的消息数").register(meterRegistry);
+        Gauge.builder("seckill.orders.pending.oldest.age", oldestPendingAgeMs, AtomicLong::get)
+                .baseUnit("milliseconds").description("最早一条pending消息的等待时长").register(meterRegistry);
+        deadLetterCounter = meterRegistry.counter("seckill.orders.dead.letter");
+        //后台认领所有消费者的超时pending消息
+        reclaimerName = consumerPrefix + "reclaimer";
+        new PendingReclaimer().scheduleNext(reclaimIntervalMs);
     }
-    private final String queueName = "stream.orders";
+    //停止消费，线程池关闭时等待当前批次处理完
+    @PreDestroy
+    private void destroy(){
+        running = false;
+    }
+    //订单消息队列，每个库存段一个
+    private List<String> queueNames;
+    //死信队列，存放超过最大投递次数的订单消息
+    private final String deadLetterQueueName = "stream.orders.dlq";
+    private static final String GROUP_NAME = "g1";
     //lua脚本
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    //分段库存下从其它段扣库存的lua脚本
+    private static final DefaultRedisScript<Long> SECKILL_TAKE_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
         SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        SECKILL_TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 预加载lua脚本，秒杀请求直接EVALSHA；
+     * redis重启等原因丢失脚本时，ScriptExecutor收到NOSCRIPT会自动EVAL重新加载
+     * @param script
+     */
+    private void loadScript(DefaultRedisScript<?> script) {
+        String sha = stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands()
+                .scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+        log.debug("lua脚本已加载, sha={}", sha);
+    }
+
+    /**
+     * 创建消费者组，消息队列不存在时一并创建
+     * @param queueName
+     */
+    private void createGroupIfAbsent(String queueName) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(queueName.getBytes(StandardCharsets.UTF_8), GROUP_NAME, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            //BUSYGROUP，消费者组已存在
+            log.debug("消费者组已存在:{}", GROUP_NAME);
+        }
     }
+
     //处理消息队列中的订单信息
     private class VoucherOrderHandler implements Runnable{
+        private final Consumer consumer;
+        //负责的消息队列，集群下不同段的队列不在同一个slot，逐个读取
+        private final List<String> streams;
+        //读取每个队列的阻塞时长，轮完一圈不超过2秒
+        private final Duration block;
+        private int next;
+
+        private VoucherOrderHandler(String consumerName, List<String> streams) {
+            this.consumer = Consumer.from(GROUP_NAME, consumerName);
+            this.streams = streams;
+            this.block = Duration.ofMillis(Math.max(2000 / streams.size(), 100));
+        }
+
         @Override
         public void run() {
-            while (true){
+            while (running && !Thread.currentThread().isInterrupted()){
                 try {
-                    //1.获取消息队列中的订单信息
+                    //1.批量获取消息队列中的订单信息
+                    String stream = streams.get(next);
+                    next = (next + 1) % streams.size();
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                            consumer,
+                            StreamReadOptions.empty().count(batchSize).block(block),
+                            StreamOffset.create(stream, ReadOffset.lastConsumed())
                     );
                     //2.判断消息是否获取成功
                     if (list == null || list.isEmpty()){
                         //3.失败，则进入下一次循环
                         continue;
                     }
-                    //4.成功，下单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //5.创建订单
-                    handleVoucherOrder(voucherOrder);
-                    // 6.ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                    //4.成功，批量下单并ACK
+                    handleRecords(list);
                 } catch (Exception e) {
+                    //失败的消息留在pending-list中，由PendingReclaimer重试
                     log.error("订单异常:",e);
-                    handlePendingList();
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
                 }
             }
         }
     }
 
     /**
-     * 异常消息回溯
+     * 异常消息回溯：认领任意消费者（包括已宕机节点）空闲超时的pending消息批量重试，
+     * 超过最大投递次数的转入死信队列。没有可认领的消息或失败时按指数退避延长下次执行间隔
      */
-    private void handlePendingList() {
-        while (true){
+    private class PendingReclaimer implements Runnable {
+        private long delayMs = reclaimIntervalMs;
+
+        @Override
+        public void run() {
             try {
-                //1.获取消息队列中的订单信息
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create(queueName, ReadOffset.from("0"))
-                );
-                //2.判断消息是否获取成功
-                if (list == null || list.isEmpty()){
-                    //3.失败，则进入下一次循环
-                    break;
+                int claimed = reclaimPendingOrders();
+                if (claimed >= reclaimBatchSize) {
+                    //一批认领满了说明还有积压，立即继续
+                    delayMs = 0;
+                } else if (claimed > 0) {
+                    delayMs = reclaimIntervalMs;
+                } else {
+                    delayMs = backoff();
                 }
-                //4.成功，下单
-                MapRecord<String, Object, Object> record = list.get(0);
-                Map<Object, Object> value = record.getValue();
-                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                //5.创建订单
-                handleVoucherOrder(voucherOrder);
-                // 6.ACK确认
-                stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
             } catch (Exception e) {
-                log.error("订单异常:",e);
-                try {
-                    Thread.sleep(20);
-                } catch (InterruptedException ex) {
-                    ex.printStackTrace();
+                delayMs = backoff();
+                log.error("pending订单认领异常，{}ms后重试:", delayMs, e);
+            } finally {
+                scheduleNext(delayMs);
+            }
+        }
+
+        private long backoff() {
+            return Math.min(Math.max(delayMs, reclaimIntervalMs) * 2, reclaimMaxIntervalMs);
+        }
+
+        private void scheduleNext(long delayMs) {
+            if (running) {
+                taskScheduler.schedule(this, new Date(System.currentTimeMillis() + delayMs));
+            }
+        }
+    }
+
+    /**
+     * 逐个消息队列认领空闲超时的pending消息
+     * @return 认领最多的一个队列本次认领的消息数
+     */
+    private int reclaimPendingOrders() {
+        long total = 0;
+        long oldest = 0;
+        int claimed = 0;
+        for (String queueName : queueNames) {
+            //刷新监控指标
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(queueName, GROUP_NAME);
+            if (summary == null || summary.getTotalPendingMessages() == 0) {
+                continue;
+            }
+            total += summary.getTotalPendingMessages();
+            RecordId minId = summary.minRecordId();
+            if (minId != null) {
+                oldest = Math.max(oldest, System.currentTimeMillis() - minId.getTimestamp());
+            }
+            claimed = Math.max(claimed, reclaimPendingOrders(queueName));
+        }
+        pendingCount.set(total);
+        oldestPendingAgeMs.set(oldest);
+        return claimed;
+    }
+
+    /**
+     * 认领一个消息队列中一批空闲超时的pending消息
+     * @param queueName
+     * @return 本次认领的消息数
+     */
+    private int reclaimPendingOrders(String queueName) {
+        //1.按id分页遍历pending-list，筛选空闲超时的消息，前面的消息仍在处理时也能找到后面超时的
+        Duration minIdle = Duration.ofMillis(reclaimMinIdleMs);
+        List<RecordId> idleIds = new ArrayList<>(reclaimBatchSize);
+        Map<RecordId, Long> deliveries = new HashMap<>(reclaimBatchSize);
+        String start = "-";
+        while (idleIds.size() < reclaimBatchSize) {
+            PendingMessages page = stringRedisTemplate.opsForStream().pending(queueName, GROUP_NAME,
+                    Range.closed(start, "+"), reclaimBatchSize);
+            for (PendingMessage message : page) {
+                if (idleIds.size() < reclaimBatchSize
+                        && message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                    idleIds.add(message.getId());
+                    deliveries.put(message.getId(), message.getTotalDeliveryCount());
                 }
             }
+            if (page.size() < reclaimBatchSize) {
+                break;
+            }
+            start = nextId(page.get(page.size() - 1).getId());
+        }
+        if (idleIds.isEmpty()) {
+            return 0;
+        }
+        //2.批量认领，XCLAIM会再次校验空闲时长，多个节点同时认领也不会重复
+        List<MapRecord<String, Object, Object>> claimed = stringRedisTemplate.opsForStream()
+                .claim(queueName, GROUP_NAME, reclaimerName, minIdle, idleIds.toArray(new RecordId[0]));
+        if (claimed == null || claimed.isEmpty()) {
+            return 0;
+        }
+        //3.超过最大投递次数的转入死信队列，其余批量重试
+        List<MapRecord<String, Object, Object>> retry = new ArrayList<>(claimed.size());
+        for (MapRecord<String, Object, Object> record : claimed) {
+            if (deliveries.getOrDefault(record.getId(), 0L) >= maxDeliveries) {
+                moveToDeadLetter(record, deliveries.get(record.getId()));
+            } else {
+                retry.add(record);
+            }
+        }
+        if (!retry.isEmpty()) {
+            handleRecords(retry);
+        }
+        return claimed.size();
+    }
+
+    /**
+     * 紧跟在id之后的消息id，用作下一页XPENDING的起点
+     * @param id
+     * @return
+     */
+    private static String nextId(RecordId id) {
+        return id.getTimestamp() + "-" + (id.getSequence() + 1);
+    }
+
+    /**
+     * 转入死信队列并ACK原消息
+     * @param record
+     * @param deliveryCount
+     */
+    private void moveToDeadLetter(MapRecord<String, Object, Object> record, long deliveryCount) {
+        Map<Object, Object> value = new HashMap<>(record.getValue());
+        value.put("sourceId", record.getId().getValue());
+        value.put("deliveries", String.valueOf(deliveryCount));
+        stringRedisTemplate.opsForStream().add(deadLetterQueueName, value);
+        stringRedisTemplate.opsForStream().acknowledge(record.getStream(), GROUP_NAME, record.getId());
+        deadLetterCounter.increment();
+        log.error("订单消息超过最大投递次数，转入死信队列:{}", value);
+    }
+
+    /**
+     * 解析一批消息，创建订单后一次性ACK，创建失败的消息不ACK，留在pending-list中由PendingReclaimer重试
+     * @param list
+     */
+    private void handleRecords(List<MapRecord<String, Object, Object>> list) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+        for (MapRecord<String, Object, Object> record : list) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        //创建订单
+        Set<Integer> failed = handleVoucherOrders(voucherOrders);
+        Map<String, List<RecordId>> recordIds = new HashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            if (!failed.contains(i)) {
+                MapRecord<String, Object, Object> record = list.get(i);
+                recordIds.computeIfAbsent(record.getStream(), stream -> new ArrayList<>()).add(record.getId());
+            }
         }
+        //每个消息队列一次XACK确认成功的消息
+        recordIds.forEach((stream, ids) -> stringRedisTemplate.opsForStream()
+                .acknowledge(stream, GROUP_NAME, ids.toArray(new RecordId[0])));
+    }
+
+    /**
+     * 批量创建订单，整批失败时逐条重试，避免一条坏消息拖垮整批
+     * @param voucherOrders
+     * @return 逐条重试仍失败的订单下标
+     */
+    private Set<Integer> handleVoucherOrders(List<VoucherOrder> voucherOrders) {
+        try {
+            proxy.createVoucherOrders(voucherOrders);
+            return Collections.emptySet();
+        } catch (Exception e) {
+            log.error("批量下单失败，逐条重试:", e);
+        }
+        //一条失败不影响其余订单
+        Set<Integer> failed = new HashSet<>();
+        for (int i = 0; i < voucherOrders.size(); i++) {
+            try {
+                handleVoucherOrder(voucherOrders.get(i));
+            } catch (Exception e) {
+                log.error("订单创建失败，等待重试:{}", voucherOrders.get(i), e);
+                failed.add(i);
+            }
+        }
+        return failed;
     }
     //阻塞队列
     /*private final BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024*1024);
@@ -148,29 +436,52 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }*/
 
     /**
-     * 判断当前订单是否符合要求
+     * 单条创建订单，写入幂等，无需加锁
      * @param voucherOrder
      */
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //1.获取用户id
-        Long userId = voucherOrder.getUserId();
-        //2.创建锁对象
-        RLock clientLock = redissonClient.getLock("lock:order:" + userId);
-        //3.获取锁
-        boolean tryLock = clientLock.tryLock();
-        //3.1获得锁失败
-        if (!tryLock){
-            log.error("不允许重复下单");
-            return;
-        }
-        //3.2成功
+        proxy.createVoucherOrders(Collections.singletonList(voucherOrder));
+    }
+
+    /**
+     * 分段库存下，归属段已售完时从其它段扣库存，全部售完或扣减异常则释放归属段的占位。
+     * 不同段不在同一个slot，占位和扣减无法在一个脚本中完成，由这里保证占位不会残留；
+     * 本地记录已售完的段，后续请求不再访问
+     * @param voucherId
+     * @param userId
+     * @param orderId
+     * @param home 用户归属段
+     * @return 0扣减成功，1全部售完
+     */
+    private int takeFromSiblings(Long voucherId, Long userId, long orderId, int home) {
+        emptySegments.put(voucherId + ":" + home, Boolean.TRUE);
+        boolean taken = false;
         try {
-            //获取代理对象
-            proxy.createVoucherOrder(voucherOrder);
-        }finally {
-            //释放锁
-            clientLock.unlock();
+            for (int i = 1; i < stockSegments && !taken; i++) {
+                int segment = (home + i) % stockSegments;
+                String segmentKey = voucherId + ":" + segment;
+                if (emptySegments.getIfPresent(segmentKey) != null) {
+                    continue;
+                }
+                Long result = stringRedisTemplate.execute(
+                        SECKILL_TAKE_SCRIPT,
+                        Arrays.asList(SeckillSegments.stockKey(voucherId, segment, stockSegments),
+                                SeckillSegments.streamKey(segment, stockSegments)),
+                        voucherId.toString(),
+                        userId.toString(),
+                        String.valueOf(orderId)
+                );
+                taken = result != null && result == 0;
+                if (!taken) {
+                    emptySegments.put(segmentKey, Boolean.TRUE);
+                }
+            }
+        } finally {
+            if (!taken) {
+                stringRedisTemplate.opsForSet().remove(SeckillSegments.orderKey(voucherId, home, stockSegments), userId.toString());
+            }
         }
+        return taken ? 0 : 1;
     }
 
     /**
@@ -180,24 +491,54 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        //已售罄则直接拒绝，不访问redis
+        if (seckillSoldOutCache.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
         //用户id
         Long userId = UserHolder.getUser().getId();
-        //订单id
+        //订单id，从本地号段取号，不额外访问redis
         long orderId = redisIdWorker.nextId("order");
-        //1.执行lua脚本
+        //1.在用户归属段执行lua脚本（EVALSHA）
+        int home = SeckillSegments.homeSegment(userId, stockSegments);
         Long result = stringRedisTemplate.execute(
                 SECKILL_SCRIPT,
-                Collections.emptyList(),
+                Arrays.asList(SeckillSegments.stockKey(voucherId, home, stockSegments),
+                        SeckillSegments.orderKey(voucherId, home, stockSegments),
+                        SeckillSegments.windowKey(voucherId, home, stockSegments),
+                        SeckillSegments.streamKey(home, stockSegments)),
                 voucherId.toString(),
                 userId.toString(),
-                String.valueOf(orderId)
+                String.valueOf(orderId),
+                stockSegments > 1 ? "1" : "0",
+                String.valueOf(System.currentTimeMillis())
         );
         assert result != null;
         int value = result.intValue();
-        //2.判断结果是否为0
+        //2.归属段库存不足且已占位，依次从其它段扣库存
+        if (value == 3){
+            value = takeFromSiblings(voucherId, userId, orderId, home);
+        }
+        //3.判断结果是否为0
+        if (value == 1){
+            //库存不足，标记售罄并广播到其它节点
+            seckillSoldOutCache.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
+        if (value == 4){
+            return Result.fail("秒杀尚未开始");
+        }
+        if (value == 5){
+            //秒杀已结束，同样在本地拦截后续请求
+            seckillSoldOutCache.markSoldOut(voucherId);
+            return Result.fail("秒杀已经结束");
+        }
         if (value != 0){
-            return Result.fail( value == 1 ? "库存不足" : "不能重复下单");
+            //重复下单的结果在读库存之前返回，不能说明是否还有库存，保留售罄标记
+            return Result.fail("不能重复下单");
         }
+        //确认请求扣减成功，说明仍有库存，清除本地售罄标记
+        seckillSoldOutCache.markAvailable(voucherId);
         /*//3.为0，有购买资格，把下单信息保存到阻塞队列
         VoucherOrder voucherOrder = new VoucherOrder();
         //订单id
@@ -208,9 +549,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         voucherOrder.setVoucherId(voucherId);
         //4.存入阻塞队列
         orderTasks.add(voucherOrder);*/
-        //5.获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        //6.返回订单id
+        //5.返回订单id
         return Result.ok(orderId);
     }
 
@@ -256,31 +595,30 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }*/
 
     /**
-     * 创建秒杀订单
-     * @param voucherOrder
+     * 批量创建秒杀订单，幂等写入：
+     * 一人一单由Lua脚本保证，数据库依靠主键(id)和唯一索引(user_id, voucher_id)INSERT IGNORE兜底，
+     * 重复投递的消息插入0行、不扣库存；库存按实际插入行数扣减，与插入在同一事务中
+     * @param voucherOrders
      */
+    @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder){
-        //1,一人一单
-        Long id = voucherOrder.getUserId();
-        //2,查询订单
-        Integer count = query().eq("user_id", id).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        //3,判断是否存在
-        if (count > 0){
-            log.error("不允许重复下单");
-            return;
-        }
-        //4,以上都通过则扣减库存
-        boolean success = seckillVoucherService.update().
-                setSql("stock = stock - 1").
-                eq("voucher_id", voucherOrder.getVoucherId()).
-                gt("stock",0).
-                update();
-        if (!success){
-            log.error("券已售空");
-            return ;
-        }
-        //5,写入数据库
-        this.save(voucherOrder);
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1,按优惠券分组
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        ordersOfVoucher.forEach((voucherId, orders) -> {
+            //2,一条多行INSERT IGNORE写入，已存在的订单被忽略
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+            if (inserted < orders.size()) {
+                log.warn("忽略重复订单{}条, voucherId={}", orders.size() - inserted, voucherId);
+            }
+            if (inserted == 0) {
+                return;
+            }
+            //3,按实际插入数扣减库存，库存不足则回滚整个事务
+            if (!seckillVoucherService.decreaseStock(voucherId, inserted)) {
+                throw new RuntimeException("券已售空, voucherId=" + voucherId);
+            }
+        });
     }
 }
@@ -7,15 +7,13 @@ import com.example.mapper.VoucherMapper;
 import com.example.entity.SeckillVoucher;
 import com.example.service.ISeckillVoucherService;
 import com.example.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.example.utils.SeckillSoldOutCache;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.example.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -27,7 +25,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillSoldOutCache seckillSoldOutCache;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -49,7 +47,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        //写入redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),voucher.getStock().toString());
+        //写入redis，库存和秒杀时间窗口
+        seckillVoucherService.cacheSeckillVoucher(seckillVoucher, true);
+        //清除各节点的售罄标记
+        seckillSoldOutCache.restock(voucher.getId());
     }
 }
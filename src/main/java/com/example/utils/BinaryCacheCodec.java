@@ -0,0 +1,267 @@
+package com.example.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制编码，格式：魔数 | 标志位 | [逻辑过期时间] | [重建耗时] | 字段签名 | 各字段值
+ * 字段按名称排序后依次写入，每个字段先写一个字节表示是否为null；
+ * 基本类型、String、LocalDateTime直接写，其它类型退化为json字符串。
+ * 字段签名由字段名和类型计算，实体类字段变更后旧数据解码失败，按未命中重建
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final byte FLAG_LOGICAL = 1;
+    private static final byte FLAG_DELTA = 2;
+    /**
+     * 类 -> 排序后的字段及签名
+     */
+    private final ConcurrentHashMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] encode(Object value) {
+        return write((byte) 0, null, null, value);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        try {
+            DataInputStream in = open(bytes);
+            byte flags = in.readByte();
+            if ((flags & FLAG_LOGICAL) != 0) {
+                readDateTime(in);
+            }
+            if ((flags & FLAG_DELTA) != 0) {
+                in.readLong();
+            }
+            return type.cast(readObject(in, type));
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("缓存解码失败", e);
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Long delta = redisData.getDelta();
+        return write(delta == null ? FLAG_LOGICAL : (byte) (FLAG_LOGICAL | FLAG_DELTA),
+                redisData.getExpireTime(), delta, redisData.getData());
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        try {
+            DataInputStream in = open(bytes);
+            byte flags = in.readByte();
+            if ((flags & FLAG_LOGICAL) == 0) {
+                throw new IllegalStateException("缓存值不含逻辑过期时间");
+            }
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(readDateTime(in));
+            if ((flags & FLAG_DELTA) != 0) {
+                redisData.setDelta(in.readLong());
+            }
+            redisData.setData(readObject(in, type));
+            return redisData;
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("缓存解码失败", e);
+        }
+    }
+
+    private byte[] write(byte flags, LocalDateTime expireTime, Long delta, Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(MAGIC);
+            out.writeByte(flags);
+            if ((flags & FLAG_LOGICAL) != 0) {
+                writeDateTime(out, expireTime);
+            }
+            if ((flags & FLAG_DELTA) != 0) {
+                out.writeLong(delta);
+            }
+            writeObject(out, value);
+        } catch (IOException | IllegalAccessException e) {
+            throw new IllegalStateException("缓存编码失败", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private DataInputStream open(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 2 || in.readByte() != MAGIC) {
+            throw new IllegalStateException("不是二进制编码的缓存值");
+        }
+        return in;
+    }
+
+    private void writeObject(DataOutputStream out, Object value) throws IOException, IllegalAccessException {
+        if (value == null) {
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        if (isScalar(value.getClass())) {
+            writeScalar(out, value);
+            return;
+        }
+        Schema schema = schema(value.getClass());
+        out.writeInt(schema.signature);
+        for (Field field : schema.fields) {
+            Object fieldValue = field.get(value);
+            out.writeBoolean(fieldValue != null);
+            if (fieldValue == null) {
+                continue;
+            }
+            if (isScalar(field.getType())) {
+                writeScalar(out, fieldValue);
+            } else {
+                writeString(out, JSONUtil.toJsonStr(fieldValue));
+            }
+        }
+    }
+
+    private Object readObject(DataInputStream in, Class<?> type) throws IOException, ReflectiveOperationException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        if (isScalar(type)) {
+            return readScalar(in, type);
+        }
+        Schema schema = schema(type);
+        if (in.readInt() != schema.signature) {
+            throw new IllegalStateException("缓存字段签名不一致:" + type.getName());
+        }
+        Object value = type.getDeclaredConstructor().newInstance();
+        for (Field field : schema.fields) {
+            if (!in.readBoolean()) {
+                continue;
+            }
+            if (isScalar(field.getType())) {
+                field.set(value, readScalar(in, field.getType()));
+            } else {
+                field.set(value, JSONUtil.toBean(readString(in), field.getGenericType(), false));
+            }
+        }
+        return value;
+    }
+
+    private static boolean isScalar(Class<?> type) {
+        return type.isPrimitive() || type == Long.class || type == Integer.class || type == Short.class
+                || type == Byte.class || type == Boolean.class || type == Double.class || type == Float.class
+                || type == String.class || type == LocalDateTime.class;
+    }
+
+    private static void writeScalar(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Long) {
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeInt((Integer) value);
+        } else if (value instanceof Short) {
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeFloat((Float) value);
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else {
+            writeDateTime(out, (LocalDateTime) value);
+        }
+    }
+
+    private static Object readScalar(DataInputStream in, Class<?> type) throws IOException {
+        if (type == Long.class || type == long.class) {
+            return in.readLong();
+        } else if (type == Integer.class || type == int.class) {
+            return in.readInt();
+        } else if (type == Short.class || type == short.class) {
+            return in.readShort();
+        } else if (type == Byte.class || type == byte.class) {
+            return in.readByte();
+        } else if (type == Boolean.class || type == boolean.class) {
+            return in.readBoolean();
+        } else if (type == Double.class || type == double.class) {
+            return in.readDouble();
+        } else if (type == Float.class || type == float.class) {
+            return in.readFloat();
+        } else if (type == String.class) {
+            return readString(in);
+        } else if (type == LocalDateTime.class) {
+            return readDateTime(in);
+        }
+        throw new IllegalStateException("不支持的类型:" + type.getName());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDateTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(value.getNano());
+    }
+
+    private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        long epochSecond = in.readLong();
+        return LocalDateTime.ofEpochSecond(epochSecond, in.readInt(), ZoneOffset.UTC);
+    }
+
+    private Schema schema(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    /**
+     * 类的全部实例字段（含父类），按名称排序
+     */
+    private static class Schema {
+        private final Field[] fields;
+        private final int signature;
+
+        Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    list.add(field);
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            int signature = 1;
+            for (Field field : list) {
+                signature = 31 * signature + (field.getName() + ":" + field.getType().getName()).hashCode();
+            }
+            this.fields = list.toArray(new Field[0]);
+            this.signature = signature;
+        }
+    }
+}
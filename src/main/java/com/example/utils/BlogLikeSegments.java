@@ -0,0 +1,42 @@
+package com.example.utils;
+
+import static com.example.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.example.utils.RedisConstants.BLOG_LIKE_DELTA_KEY;
+import static com.example.utils.RedisConstants.BLOG_LIKE_DIRTY_KEY;
+import static com.example.utils.RedisConstants.BLOG_LIKE_FLUSHING_KEY;
+
+/**
+ * 点赞数据分段：博文按id分到多个段，每段的点赞集合、点赞数增量、待刷新集合和刷新中的批次带相同的hash tag，
+ * 点赞和取出刷新批次的lua脚本访问的key都在同一个slot，不同段分散到集群的多个分片
+ * 段数为1时沿用原来的key（单机redis）
+ */
+public class BlogLikeSegments {
+
+    private BlogLikeSegments() {
+    }
+
+    public static int segment(Long blogId, int segments) {
+        return segments <= 1 ? 0 : (int) Math.floorMod(blogId, (long) segments);
+    }
+
+    public static String likedKey(Long blogId, int segments) {
+        return segments <= 1 ? BLOG_LIKED_KEY + blogId
+                : BLOG_LIKED_KEY + tag(segment(blogId, segments)) + ":" + blogId;
+    }
+
+    public static String deltaKey(int segment, int segments) {
+        return segments <= 1 ? BLOG_LIKE_DELTA_KEY : BLOG_LIKE_DELTA_KEY + ":" + tag(segment);
+    }
+
+    public static String dirtyKey(int segment, int segments) {
+        return segments <= 1 ? BLOG_LIKE_DIRTY_KEY : BLOG_LIKE_DIRTY_KEY + ":" + tag(segment);
+    }
+
+    public static String flushingKey(int segment, int segments) {
+        return segments <= 1 ? BLOG_LIKE_FLUSHING_KEY : BLOG_LIKE_FLUSHING_KEY + ":" + tag(segment);
+    }
+
+    private static String tag(int segment) {
+        return "{blog:like:" + segment + "}";
+    }
+}
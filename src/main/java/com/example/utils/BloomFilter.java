@@ -0,0 +1,91 @@
+package com.example.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内布隆过滤器，只支持long类型的id
+ * 位数组用AtomicLongArray，写入CAS置位，读写都无锁
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+    /**
+     * 写入时至少改变一位的次数，近似于已写入的不同元素数
+     */
+    private final AtomicLong insertions = new AtomicLong();
+
+    /**
+     * @param expectedInsertions 预计元素数
+     * @param fpp 期望误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (m + 63) >>> 6);
+        this.bits = new AtomicLongArray(words);
+        this.numBits = (long) words << 6;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    public void put(long value) {
+        long hash = mix(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        boolean changed = false;
+        for (int i = 1; i <= numHashes; i++) {
+            long index = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % numBits;
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+            changed |= (old & mask) == 0;
+        }
+        if (changed) {
+            insertions.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param value
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(long value) {
+        long hash = mix(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按当前元素数估算的误判率
+     * @return
+     */
+    public double expectedFpp() {
+        return Math.pow(1 - Math.exp(-(double) numHashes * insertions.get() / numBits), numHashes);
+    }
+
+    /**
+     * murmur3的64位混淆函数
+     */
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+}
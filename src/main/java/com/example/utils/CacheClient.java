@@ -1,26 +1,361 @@
 package com.example.utils;
 
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.example.utils.RedisConstants.*;
 
 @Component
 @Slf4j
-public class CacheClient {
+public class CacheClient implements MessageListener {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private MeterRegistry meterRegistry;
+    /**
+     * 缓存值按字节读写，编码方式由cache.codec决定
+     */
+    @Resource
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+    @Resource
+    private CacheCodec cacheCodec;
+    /**
+     * redis中的空值
+     */
+    private static final byte[] EMPTY = new byte[0];
+    /**
+     * 是否启用进程内一级缓存，一级缓存中的对象被多个请求共享，调用方不能修改
+     */
+    @Value("${cache.local.enabled:false}")
+    private boolean localEnabled;
+    @Value("${cache.local.maximum-size:10000}")
+    private long localMaximumSize;
+    @Value("${cache.local.expire-seconds:30}")
+    private long localExpireSeconds;
+    /**
+     * 一级缓存，key -> 反序列化后的对象，空值用NULL_VALUE占位
+     */
+    private Cache<String, Object> localCache;
+    private static final Object NULL_VALUE = new Object();
+    /**
+     * 节点标识，忽略自己发出的失效消息
+     */
+    private final String nodeId = UUID.randomUUID().toString(true);
+    /**
+     * 互斥锁重建时最长等待时间，超时仍未重建完成则请求失败
+     */
+    @Value("${cache.rebuild.max-wait-ms:1000}")
+    private long rebuildMaxWaitMs;
+    /**
+     * 本节点正在重建的key -> 重建结果，并发未命中的请求共享
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+    /**
+     * 等待其它节点重建完成的key -> 通知
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> rebuildWaiters = new ConcurrentHashMap<>();
+    @Value("${cache.bloom.enabled:true}")
+    private boolean bloomEnabled;
+    @Value("${cache.bloom.expected-insertions:1000000}")
+    private long bloomExpectedInsertions;
+    @Value("${cache.bloom.fpp:0.01}")
+    private double bloomFpp;
+    private static final int BLOOM_LOAD_BATCH = 10000;
+    /**
+     * key前缀 -> 布隆过滤器，预加载完成前也接收新增id
+     */
+    private final ConcurrentHashMap<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+    /**
+     * 预加载完成、可以用来拦截请求的key前缀
+     */
+    private final Set<String> bloomReady = ConcurrentHashMap.newKeySet();
+    /**
+     * 写入普通缓存时在TTL上随机增加的比例，避免同时写入的key同时过期
+     */
+    @Value("${cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+    /**
+     * 逻辑过期的key是否按XFetch提前重建：now - delta * beta * ln(rand) >= expireTime时重建，
+     * delta为上次重建耗时，越接近过期、重建越慢，提前重建的概率越大
+     */
+    @Value("${cache.early-refresh.enabled:true}")
+    private boolean earlyRefreshEnabled;
+    @Value("${cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    /**
+     * 热key副本的过期时间，一级缓存未启用时热key也会复制到本地
+     */
+    @Value("${cache.hot-key.local-ttl-seconds:5}")
+    private long hotLocalTtlSeconds;
+    @Value("${cache.hot-key.local-maximum-size:1000}")
+    private long hotLocalMaximumSize;
+    /**
+     * 热key本地副本，key -> 反序列化后的对象，空值用NULL_VALUE占位
+     */
+    private Cache<String, Object> hotCache;
+    /**
+     * key前缀 -> 命中/未命中计数
+     */
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_REBUILT_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_BLOOM_ADD_CHANNEL));
+        if (localEnabled) {
+            localCache = Caffeine.newBuilder()
+                    .maximumSize(localMaximumSize)
+                    .expireAfterWrite(localExpireSeconds, TimeUnit.SECONDS)
+                    .build();
+        }
+        if (hotKeyDetector.isEnabled()) {
+            hotCache = Caffeine.newBuilder()
+                    .maximumSize(hotLocalMaximumSize)
+                    .expireAfterWrite(hotLocalTtlSeconds, TimeUnit.SECONDS)
+                    .build();
+        }
+        if (localEnabled || hotCache != null) {
+            redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        }
+    }
+
+    /**
+     * 删除缓存，同时通知所有节点清除一级缓存
+     * @param key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        invalidateLocal(key);
+    }
+
+    /**
+     * 收到缓存重建完成的消息，唤醒等待的请求；收到其它节点的失效消息，清除一级缓存
+     * @param message 重建完成：key；失效：节点标识|key
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (CACHE_REBUILT_CHANNEL.equals(channel)) {
+            CompletableFuture<Void> rebuilt = rebuildWaiters.remove(body);
+            if (rebuilt != null) {
+                rebuilt.complete(null);
+            }
+            return;
+        }
+        if (CACHE_BLOOM_ADD_CHANNEL.equals(channel)) {
+            int index = body.lastIndexOf('|');
+            BloomFilter bloomFilter = bloomFilters.get(body.substring(0, index));
+            if (bloomFilter != null) {
+                bloomFilter.put(Long.parseLong(body.substring(index + 1)));
+            }
+            return;
+        }
+        int index = body.indexOf('|');
+        if (index < 0 || nodeId.equals(body.substring(0, index))) {
+            return;
+        }
+        String key = body.substring(index + 1);
+        if (localEnabled) {
+            localCache.invalidate(key);
+        }
+        if (hotCache != null) {
+            hotCache.invalidate(key);
+        }
+    }
+
+    /**
+     * 创建布隆过滤器并按id分页预加载，加载完成后才开始拦截
+     * @param keyPrefix 缓存key前缀
+     * @param idLoader 参数为上一页最大id，返回按id升序的下一页id
+     */
+    public void initBloomFilter(String keyPrefix, Function<Long, List<Long>> idLoader) {
+        if (!bloomEnabled) {
+            return;
+        }
+        BloomFilter bloomFilter = new BloomFilter(bloomExpectedInsertions, bloomFpp);
+        bloomFilters.put(keyPrefix, bloomFilter);
+        long lastId = 0;
+        long total = 0;
+        List<Long> ids;
+        do {
+            ids = idLoader.apply(lastId);
+            for (Long id : ids) {
+                bloomFilter.put(id);
+                lastId = Math.max(lastId, id);
+            }
+            total += ids.size();
+        } while (ids.size() >= BLOOM_LOAD_BATCH);
+        bloomReady.add(keyPrefix);
+        Gauge.builder("cache.bloom.fpp", bloomFilter, BloomFilter::expectedFpp)
+                .tag("prefix", keyPrefix)
+                .description("按当前元素数估算的布隆过滤器误判率")
+                .register(meterRegistry);
+        log.info("布隆过滤器{}加载完成，共{}条", keyPrefix, total);
+    }
+
+    /**
+     * 每页预加载的id数，idLoader应按该数量分页
+     * @return
+     */
+    public int bloomLoadBatch() {
+        return BLOOM_LOAD_BATCH;
+    }
+
+    /**
+     * 新增数据后加入布隆过滤器，并通知其它节点
+     * @param keyPrefix
+     * @param id
+     */
+    public void addToBloomFilter(String keyPrefix, Long id) {
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter == null) {
+            return;
+        }
+        bloomFilter.put(id);
+        stringRedisTemplate.convertAndSend(CACHE_BLOOM_ADD_CHANNEL, keyPrefix + "|" + id);
+    }
+
+    /**
+     * 判断id是否可能存在，未启用或未加载完成时一律放行
+     * @param keyPrefix
+     * @param id
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        if (!(id instanceof Number) || !bloomReady.contains(keyPrefix)) {
+            return true;
+        }
+        boolean contain = bloomFilters.get(keyPrefix).mightContain(((Number) id).longValue());
+        if (!contain) {
+            count(keyPrefix, "bloom", false);
+        }
+        return contain;
+    }
+
+    /**
+     * 记录访问用于热key探测，读一级缓存和热key副本并按key前缀计数
+     * @param keyPrefix
+     * @param key
+     * @return 未启用或未命中返回null
+     */
+    private Object getLocal(String keyPrefix, String key) {
+        hotKeyDetector.record(key);
+        Object value = null;
+        if (localEnabled) {
+            value = localCache.getIfPresent(key);
+            count(keyPrefix, "local", value != null);
+        }
+        if (value == null && hotCache != null) {
+            value = hotCache.getIfPresent(key);
+            if (value != null) {
+                count(keyPrefix, "hot", true);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 写入一级缓存，热key同时写入热key副本
+     * @param key
+     * @param value
+     */
+    private void putLocal(String key, Object value) {
+        if (localEnabled) {
+            localCache.put(key, value == null ? NULL_VALUE : value);
+        }
+        if (hotCache != null && hotKeyDetector.isHot(key)) {
+            hotCache.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 清除本节点一级缓存和热key副本并广播
+     * @param key
+     */
+    private void invalidateLocal(String key) {
+        if (localEnabled) {
+            localCache.invalidate(key);
+        }
+        if (hotCache != null) {
+            hotCache.invalidate(key);
+        }
+        if (localEnabled || hotCache != null) {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, nodeId + "|" + key);
+        }
+    }
+
+    /**
+     * 按缓存层级和key前缀统计命中率：cache.gets{level, prefix, result}
+     * @param keyPrefix
+     * @param level local、hot、redis或bloom
+     * @param hit
+     */
+    private void count(String keyPrefix, String level, boolean hit) {
+        String result = hit ? "hit" : "miss";
+        counters.computeIfAbsent(level + ":" + keyPrefix + ":" + result, k -> Counter.builder("cache.gets")
+                .tag("level", level)
+                .tag("prefix", keyPrefix)
+                .tag("result", result)
+                .register(meterRegistry)).increment();
+    }
+
+    /**
+     * 解码缓存值，失败（如切换了编码方式或实体类字段变更）按未命中处理
+     * @return 解码失败返回null
+     */
+    private <R> R decode(String key, byte[] bytes, Class<R> type) {
+        try {
+            return cacheCodec.decode(bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存解码失败，按未命中处理:{}", key, e);
+            return null;
+        }
+    }
 
     /**
      * 普通set方法
@@ -30,7 +365,8 @@ public class CacheClient {
      * @param unit
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        cacheRedisTemplate.opsForValue().set(key, cacheCodec.encode(value), jitter(time, unit), TimeUnit.MILLISECONDS);
+        invalidateLocal(key);
     }
 
     /**
@@ -41,10 +377,62 @@ public class CacheClient {
      * @param unit
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    /**
+     * 逻辑过期set方法，记录本次重建耗时用于提前重建
+     * @param delta 重建耗时，毫秒
+     */
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long delta){
         RedisData redisData = new RedisData();
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+        redisData.setDelta(delta);
+        cacheRedisTemplate.opsForValue().set(key, cacheCodec.encodeLogical(redisData));
+        invalidateLocal(key);
+    }
+
+    /**
+     * TTL加上随机抖动
+     * @return 毫秒
+     */
+    private long jitter(Long time, TimeUnit unit) {
+        long ttl = unit.toMillis(time);
+        if (ttlJitter <= 0) {
+            return ttl;
+        }
+        return ttl + (long) (ttl * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * 是否需要重建：已过期，或按XFetch提前重建
+     * @param keyPrefix
+     * @param redisData
+     * @return
+     */
+    private boolean needRefresh(String keyPrefix, RedisData redisData) {
+        //已过期或无法解码（过期时间为MIN，换算毫秒会溢出），先于时间戳换算判断
+        LocalDateTime expireTime = redisData.getExpireTime();
+        if (expireTime == null || !expireTime.isAfter(LocalDateTime.now())) {
+            return true;
+        }
+        long expireAt = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long now = System.currentTimeMillis();
+        Long delta = redisData.getDelta();
+        if (!earlyRefreshEnabled || delta == null || delta <= 0) {
+            return false;
+        }
+        //1 - nextDouble()取值(0,1]，ln为非正数
+        double gap = -delta * earlyRefreshBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        boolean early = now + gap >= expireAt;
+        if (early) {
+            counters.computeIfAbsent("early-refresh:" + keyPrefix, k -> Counter.builder("cache.early.refresh")
+                    .tag("prefix", keyPrefix)
+                    .description("按XFetch在过期前触发的重建次数")
+                    .register(meterRegistry)).increment();
+        }
+        return early;
     }
 
     /**
@@ -61,16 +449,30 @@ public class CacheClient {
      */
     public <R,ID> R  queryWithPassThrough(String keyPrefix , ID id , Class<R> type
             , Function<ID,R> dbFallBack , Long time, TimeUnit unit) {
+        //0，布隆过滤器判断id一定不存在则直接返回
+        if (!mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        //0，查一级缓存
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
         //1，从redis查缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        count(keyPrefix, "redis", bytes != null);
         //2，判断缓存是否存在
-        if (StrUtil.isNotBlank(json)) {
-            //2.1，存在则直接返回
-            return JSONUtil.toBean(json, type);
-        }
-        //2.2,判断命中的是否是空值
-        if (json != null) {
+        if (bytes != null && bytes.length > 0) {
+            //2.1，存在则直接返回，解码失败按未命中处理
+            R r = decode(key, bytes, type);
+            if (r != null) {
+                putLocal(key, r);
+                return r;
+            }
+        } else if (bytes != null) {
+            //2.2,命中的是空值
+            putLocal(key, null);
             return null;
         }
         //3，不存在，根据id查数据库
@@ -78,7 +480,8 @@ public class CacheClient {
         //4，数据库不存在，返回404错误
         if (r == null) {
             //4.1,将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            cacheRedisTemplate.opsForValue().set(key, EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            invalidateLocal(key);
             return null;
         }
         //5，存在则写入redis
@@ -87,7 +490,8 @@ public class CacheClient {
         return r;
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private ThreadPoolTaskExecutor cacheRebuildExecutor;
 
     /**
      * 逻辑过期解决缓存击穿
@@ -103,51 +507,101 @@ public class CacheClient {
      */
     public <R,ID> R queryWithLogicalExpire(String keyPrefix ,
            ID id , Class<R> type , Function<ID,R> dbFallBack , Long time, TimeUnit unit) {
-        String key = keyPrefix + id;
-        //1.从redis查缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2.判断是否存在
-        //3，不存在则直接返回
-        if (StrUtil.isBlank(json)) {
+        //0.布隆过滤器判断id一定不存在则直接返回
+        if (!mightContain(keyPrefix, id)) {
             return null;
         }
-        //4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        //5.判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())){
+        String key = keyPrefix + id;
+        //0.查一级缓存，缓存的是已反序列化data的RedisData
+        RedisData redisData = (RedisData) getLocal(keyPrefix, key);
+        if (redisData == null) {
+            //1.从redis查缓存
+            byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+            count(keyPrefix, "redis", bytes != null && bytes.length > 0);
+            //2.判断是否存在
+            //3，不存在则直接返回
+            if (bytes == null || bytes.length == 0) {
+                return null;
+            }
+            //4.命中，解码过期时间和数据
+            try {
+                redisData = cacheCodec.decodeLogical(bytes, type);
+                putLocal(key, redisData);
+            } catch (RuntimeException e) {
+                //解码失败视为已过期，本次返回null并触发重建
+                log.warn("缓存解码失败，按过期处理:{}", key, e);
+                redisData = new RedisData();
+                redisData.setExpireTime(LocalDateTime.MIN);
+            }
+        }
+        R r = type.cast(redisData.getData());
+        //5.判断是否过期，未过期时按XFetch概率提前重建
+        if (!needRefresh(keyPrefix, redisData)){
             //5.1.未过期则直接返回旧店铺信息
             return r;
         }
-        //5.2.已过期，则需要缓存重建
+        //5.2.已过期或提前重建，则需要缓存重建
         //6.缓存重建
         //6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        String lockKey = LOCK_CACHE_KEY + key;
         boolean lock = tryGetLock(lockKey);
         //6.2.判断是否获取成功
         if (lock){
-            //再次判断是否过期
-            if (!expireTime.isAfter(LocalDateTime.now())){
-                //6.3.获取成功，开启独立线程，实现缓存重建
-                CACHE_REBUILD_EXECUTOR.submit(() -> {
+            //6.3.获取成功，再次检查过期时间，其它请求可能在读取之后、获取锁之前刚完成重建
+            RedisData latest = rebuiltSince(key, type, redisData);
+            if (latest != null) {
+                unlock(lockKey);
+                return type.cast(latest.getData());
+            }
+            //6.4.开启独立线程，实现缓存重建
+            try {
+                cacheRebuildExecutor.execute(() -> {
                     try {
-                        //缓存重建
+                        //缓存重建，记录耗时
+                        long begin = System.currentTimeMillis();
                         R rr = dbFallBack.apply(id);
-                        this.setWithLogicalExpire(key , rr , time , unit);
+                        this.setWithLogicalExpire(key , rr , time , unit, System.currentTimeMillis() - begin);
                     }catch (Exception e){
-                        throw new RuntimeException();
+                        log.error("缓存重建失败:{}", key, e);
                     }finally {
                         //释放锁
                         unlock(lockKey);
                     }
                 });
-           }
+            } catch (RejectedExecutionException e) {
+                //线程池已满，释放锁，等待下次请求重建
+                log.warn("缓存重建任务被拒绝:{}", key);
+                unlock(lockKey);
+            }
         }
-        //6.4.失败，则返回过期信息
+        //6.5.失败，则返回过期信息
         return r;
     }
 
+    /**
+     * 获取重建锁后重新读取redis，过期时间晚于之前读到的说明已被其它请求重建
+     * @param key
+     * @param type
+     * @param seen 之前读到的数据
+     * @return 重建后的数据，未重建返回null
+     */
+    private RedisData rebuiltSince(String key, Class<?> type, RedisData seen) {
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            RedisData latest = cacheCodec.decodeLogical(bytes, type);
+            if (latest.getExpireTime() != null && latest.getExpireTime().isAfter(seen.getExpireTime())) {
+                putLocal(key, latest);
+                return latest;
+            }
+        } catch (RuntimeException e) {
+            log.warn("缓存解码失败，按过期处理:{}", key, e);
+        }
+        return null;
+    }
+
     /**
      * 互斥锁解决缓存击穿
      * @param keyPrefix
@@ -162,59 +616,270 @@ public class CacheClient {
      */
     public <R,ID> R queryWithMutex(String keyPrefix ,
         ID id , Class<R> type , Function<ID,R> dbFallBack , Long time, TimeUnit unit) {
+        //0，布隆过滤器判断id一定不存在则直接返回
+        if (!mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        //0，查一级缓存
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
         //1，从redis查缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        count(keyPrefix, "redis", bytes != null);
         //2，判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            //2.1，存在则直接返回
-            return JSONUtil.toBean(json, type);
-        }
-        //3,判断命中的是否是空值
-        if (json != null) {
+        if (bytes != null && bytes.length > 0) {
+            //2.1，存在则直接返回，解码失败按未命中处理
+            R r = decode(key, bytes, type);
+            if (r != null) {
+                putLocal(key, r);
+                return r;
+            }
+        } else if (bytes != null) {
+            //3,命中的是空值
+            putLocal(key, null);
             return null;
         }
-        //4，实现缓存重建
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r;
+        //4，实现缓存重建，同一节点内并发未命中的请求共享一次重建结果
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inflight.putIfAbsent(key, future);
+        Object value;
+        if (existing == null) {
+            //4.1，任何异常（包括Error）都要通知等待的请求，否则它们会一直等到超时
+            try {
+                value = rebuildWithMutex(key, id, type, dbFallBack, time, unit);
+                future.complete(value);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                inflight.remove(key, future);
+            }
+            return value == NULL_VALUE ? null : type.cast(value);
+        }
+        //5，等待重建结果，重建方自身可能已等待其它节点rebuildMaxWaitMs，这里放宽一倍
         try {
-            //4.1,获取互斥锁
-            boolean getLock = tryGetLock(lockKey);
-            //4.2,判断是否获取成功
-            if (!getLock) {
-                //4.2.1,失败则休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallBack, time, unit);
-            }
-            //4.2.2,成功，根据id查询数据库
-            //从redis查缓存
-            String s1 = stringRedisTemplate.opsForValue().get(key);
-            //判断是否存在
-            if (StrUtil.isNotBlank(s1)) {
-                //存在则直接返回
-                return JSONUtil.toBean(s1, type);
-            }
-            r = dbFallBack.apply(id);
-            Thread.sleep(200);
-            //5，数据库不存在，返回404错误
-            if (r == null) {
-                //5.1,将空值写入redis
-                stringRedisTemplate.opsForValue().set(key,
-                        "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
+            value = existing.get(2 * rebuildMaxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("缓存重建超时:" + key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("缓存重建被中断:" + key);
+        }
+        //6，返回数据
+        return value == NULL_VALUE ? null : type.cast(value);
+    }
+
+    /**
+     * 互斥锁重建缓存，获取锁失败说明其它节点正在重建，等待重建完成的通知而不是轮询
+     * @return 重建后的对象，空值返回NULL_VALUE
+     */
+    private <R,ID> Object rebuildWithMutex(String key, ID id, Class<R> type,
+                                           Function<ID,R> dbFallBack, Long time, TimeUnit unit) {
+        String lockKey = LOCK_CACHE_KEY + key;
+        //先登记等待，避免错过获取锁失败之后、开始等待之前发出的通知
+        CompletableFuture<Void> rebuilt = rebuildWaiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+        //1,获取互斥锁
+        if (tryGetLock(lockKey)) {
+            rebuildWaiters.remove(key, rebuilt);
+            try {
+                //2,获取成功，再次查redis，可能其它节点刚重建完
+                byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+                if (bytes != null && bytes.length == 0) {
+                    return NULL_VALUE;
+                }
+                R cached = bytes == null ? null : decode(key, bytes, type);
+                if (cached != null) {
+                    return cached;
+                }
+                //3,根据id查询数据库
+                R r = dbFallBack.apply(id);
+                //4,数据库不存在，将空值写入redis
+                if (r == null) {
+                    cacheRedisTemplate.opsForValue().set(key, EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    invalidateLocal(key);
+                    putLocal(key, null);
+                    return NULL_VALUE;
+                }
+                //5,存在则写入redis
+                this.set(key, r, time, unit);
+                putLocal(key, r);
+                return r;
+            } finally {
+                //6,释放互斥锁并通知等待的节点
+                unlock(lockKey);
+                stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
             }
-            //6，存在则写入redis
-            this.set(key, r, time, unit);
+        }
+        //7,获取锁失败，等待重建完成的通知，最多等待rebuildMaxWaitMs
+        try {
+            if (!Boolean.TRUE.equals(cacheRedisTemplate.hasKey(key))) {
+                rebuilt.get(rebuildMaxWaitMs, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException | ExecutionException e) {
+            log.warn("等待缓存重建超时:{}", key);
         } catch (InterruptedException e) {
-            throw new RuntimeException();
+            Thread.currentThread().interrupt();
         } finally {
-            //7，释放互斥锁
-            unlock(lockKey);
+            rebuildWaiters.remove(key, rebuilt);
+        }
+        //8,读取重建结果，仍不存在则失败
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        if (bytes != null && bytes.length == 0) {
+            return NULL_VALUE;
+        }
+        R r = bytes == null ? null : decode(key, bytes, type);
+        if (r == null) {
+            throw new RuntimeException("缓存重建超时:" + key);
         }
-        //8，返回数据
         return r;
     }
 
+    /**
+     * 批量查询，通过写入null值解决缓存穿透，一次MGET，未命中的一次查库并用一个pipeline写回
+     * @param keyPrefix
+     * @param ids
+     * @param type
+     * @param dbFallBack 按id集合批量查库，如listByIds
+     * @param idGetter 取实体的id，用于和未命中的id对应
+     * @param time
+     * @param unit
+     * @param <R>
+     * @param <ID>
+     * @return 按ids顺序，不存在的id不返回
+     */
+    public <R,ID> List<R> queryBatchWithPassThrough(String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, List<R>> dbFallBack, Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>(ids.size());
+        //1，布隆过滤器过滤，查一级缓存
+        List<ID> redisIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!mightContain(keyPrefix, id)) {
+                continue;
+            }
+            Object local = getLocal(keyPrefix, keyPrefix + id);
+            if (local == null) {
+                redisIds.add(id);
+            } else if (local != NULL_VALUE) {
+                found.put(id, type.cast(local));
+            }
+        }
+        //2，一次MGET查redis
+        List<ID> missIds = new ArrayList<>();
+        List<byte[]> values = multiGet(keyPrefix, redisIds);
+        for (int i = 0; i < redisIds.size(); i++) {
+            ID id = redisIds.get(i);
+            String key = keyPrefix + id;
+            byte[] bytes = values.get(i);
+            count(keyPrefix, "redis", bytes != null);
+            if (bytes == null) {
+                missIds.add(id);
+            } else if (bytes.length == 0) {
+                //2.1，命中空值
+                putLocal(key, null);
+            } else {
+                //2.2，解码失败按未命中处理
+                R r = decode(key, bytes, type);
+                if (r == null) {
+                    missIds.add(id);
+                } else {
+                    found.put(id, r);
+                    putLocal(key, r);
+                }
+            }
+        }
+        //3，未命中的一次查库，不存在的写入空值
+        if (!missIds.isEmpty()) {
+            Map<String, R> loaded = byId(dbFallBack.apply(missIds), idGetter);
+            Map<String, byte[]> writes = new LinkedHashMap<>(missIds.size());
+            for (ID id : missIds) {
+                R r = loaded.get(String.valueOf(id));
+                if (r != null) {
+                    found.put(id, r);
+                }
+                writes.put(keyPrefix + id, r == null ? EMPTY : cacheCodec.encode(r));
+            }
+            //4，一个pipeline写回redis
+            setBatch(writes, time, unit);
+        }
+        //5，按ids顺序返回
+        return collect(ids, found);
+    }
+
+    /**
+     * 一次MGET
+     * @return 与ids一一对应，不存在为null
+     */
+    private <ID> List<byte[]> multiGet(String keyPrefix, List<ID> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> keys = ids.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys);
+        return values == null ? Collections.nCopies(keys.size(), null) : values;
+    }
+
+    /**
+     * 一个pipeline批量写入，空值使用CACHE_NULL_TTL，同时广播清除各节点一级缓存
+     * @param values key -> 编码后的值
+     * @param time
+     * @param unit
+     */
+    private void setBatch(Map<String, byte[]> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] value = entry.getValue();
+                if (value.length == 0) {
+                    connection.stringCommands().pSetEx(key, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), value);
+                } else {
+                    connection.stringCommands().pSetEx(key, jitter(time, unit), value);
+                }
+                if (localEnabled || hotCache != null) {
+                    connection.publish(CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                            (nodeId + "|" + entry.getKey()).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return null;
+        });
+        if (localEnabled) {
+            localCache.invalidateAll(values.keySet());
+        }
+        if (hotCache != null) {
+            hotCache.invalidateAll(values.keySet());
+        }
+    }
+
+    private static <R, ID> Map<String, R> byId(List<R> list, Function<R, ID> idGetter) {
+        Map<String, R> map = new HashMap<>(list.size());
+        for (R r : list) {
+            map.put(String.valueOf(idGetter.apply(r)), r);
+        }
+        return map;
+    }
+
+    private static <R, ID> List<R> collect(Collection<ID> ids, Map<ID, R> found) {
+        List<R> list = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                list.add(r);
+            }
+        }
+        return list;
+    }
+
     //添加锁
     public boolean tryGetLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
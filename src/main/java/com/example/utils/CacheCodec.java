@@ -0,0 +1,39 @@
+package com.example.utils;
+
+/**
+ * 缓存值编解码，CacheClient按字节读写redis
+ * 解码失败时抛出异常，CacheClient按未命中处理，切换编码格式后旧数据会被自然覆盖
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存值
+     * @param value
+     * @return
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码普通缓存值
+     * @param bytes
+     * @param type
+     * @param <R>
+     * @return
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 编码带逻辑过期时间的缓存值
+     * @param redisData
+     * @return
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 解码带逻辑过期时间的缓存值，data为解码后的type对象
+     * @param bytes
+     * @param type
+     * @return
+     */
+    RedisData decodeLogical(byte[] bytes, Class<?> type);
+}
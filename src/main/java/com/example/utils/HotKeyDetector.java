@@ -0,0 +1,170 @@
+package com.example.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 采样热key探测，滑动窗口由多个时间片的count-min sketch组成
+ * 每次访问按sample-rate采样计数，估计值为窗口内各时间片之和再按采样率放大；
+ * 估计值超过threshold的key进入热key集合，每个时间片结束时重新估计并保留前top-k个
+ */
+@Component
+public class HotKeyDetector {
+    private static final int DEPTH = 4;
+    @Value("${cache.hot-key.enabled:true}")
+    private boolean enabled;
+    @Value("${cache.hot-key.sample-rate:0.1}")
+    private double sampleRate;
+    /**
+     * 每个时间片的sketch宽度，取2的幂
+     */
+    @Value("${cache.hot-key.width:2048}")
+    private int width;
+    @Value("${cache.hot-key.slices:10}")
+    private int sliceCount;
+    /**
+     * 窗口内估计访问次数达到该值即为热key
+     */
+    @Value("${cache.hot-key.threshold:500}")
+    private long threshold;
+    @Value("${cache.hot-key.top-k:20}")
+    private int topK;
+    private AtomicIntegerArray[] slices;
+    private volatile int current;
+    /**
+     * 当前热key -> 最近一次估计的访问次数
+     */
+    private final ConcurrentHashMap<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        width = Integer.highestOneBit(Math.max(width, 64));
+        slices = new AtomicIntegerArray[Math.max(sliceCount, 1)];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = new AtomicIntegerArray(DEPTH * width);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次访问，按采样率计数
+     * @param key
+     */
+    public void record(String key) {
+        if (!enabled || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        AtomicIntegerArray slice = slices[current];
+        int hash1 = key.hashCode();
+        int hash2 = mix(hash1);
+        for (int i = 0; i < DEPTH; i++) {
+            slice.incrementAndGet(i * width + ((hash1 + i * hash2) & (width - 1)));
+        }
+        if (hotKeys.containsKey(key) || hotKeys.size() < 4 * topK) {
+            long estimate = estimate(key);
+            if (estimate >= threshold) {
+                hotKeys.put(key, estimate);
+            }
+        }
+    }
+
+    /**
+     * 是否为热key，只读本地map
+     * @param key
+     * @return
+     */
+    public boolean isHot(String key) {
+        return enabled && hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前热key，按估计访问次数降序
+     * @return key -> 窗口内估计访问次数
+     */
+    public Map<String, Long> topKeys() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    /**
+     * 滑动窗口前进一个时间片：清空最旧的时间片，重新估计热key并只保留前top-k个
+     */
+    @Scheduled(fixedRateString = "${cache.hot-key.slice-ms:1000}")
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        int next = (current + 1) % slices.length;
+        AtomicIntegerArray slice = slices[next];
+        for (int i = 0; i < slice.length(); i++) {
+            slice.set(i, 0);
+        }
+        current = next;
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(hotKeys.size());
+        for (String key : hotKeys.keySet()) {
+            long estimate = estimate(key);
+            if (estimate < threshold) {
+                hotKeys.remove(key);
+            } else {
+                hotKeys.put(key, estimate);
+                entries.add(new AbstractMap.SimpleEntry<>(key, estimate));
+            }
+        }
+        if (entries.size() > topK) {
+            entries.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+            for (Map.Entry<String, Long> entry : entries.subList(topK, entries.size())) {
+                hotKeys.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 窗口内估计访问次数：每个时间片取各行最小值，求和后按采样率放大
+     * @param key
+     * @return
+     */
+    private long estimate(String key) {
+        int hash1 = key.hashCode();
+        int hash2 = mix(hash1);
+        long sum = 0;
+        for (AtomicIntegerArray slice : slices) {
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, slice.get(i * width + ((hash1 + i * hash2) & (width - 1))));
+            }
+            sum += min;
+        }
+        return (long) (sum / sampleRate);
+    }
+
+    /**
+     * murmur3的32位混淆函数，得到第二个独立的hash，并保证为奇数
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
@@ -13,13 +13,50 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type:";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+    public static final String CACHE_BLOOM_ADD_CHANNEL = "cache:bloom:add";
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    //缓存重建锁，后接完整的缓存key，不同前缀的缓存互不争用
+    public static final String LOCK_CACHE_KEY = "lock:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKE_DELTA_KEY = "blog:like:delta";
+    public static final String BLOG_LIKE_DIRTY_KEY = "blog:like:dirty";
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like:flushing";
+    public static final String LOCK_BLOG_LIKE_FLUSH_KEY = "lock:blog:like:flush";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String LOCK_BLOG_HOT_KEY = "lock:blog:hot";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_FANOUT_KEY = "feed:fanout:";
+    public static final String FEED_FANOUT_PENDING_KEY = "feed:fanout:pending";
+    public static final Long FEED_FANOUT_TTL = 24L;
+    public static final String LOCK_FEED_FANOUT_KEY = "lock:feed:fanout:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_PULL_AUTHORS_KEY = "feed:pull:authors";
+    public static final String FEED_EVICTED_KEY = "feed:evicted";
+    public static final String LOCK_FEED_SWEEP_KEY = "lock:feed:sweep";
+    public static final String USER_ACTIVE_KEY = "user:active";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
     public static final String FOLLOW_USER = "follows:";
+    public static final String FOLLOW_LOADED_MEMBER = "0";
+    public static final String FOLLOW_PENDING_KEY = "follow:pending";
+    public static final String FOLLOW_FLUSHING_KEY = "follow:flushing";
+    public static final String LOCK_FOLLOW_FLUSH_KEY = "lock:follow:flush";
+    public static final String FOLLOWER_COUNT_KEY = "follow:followers";
+    public static final String FOLLOW_DIRTY_KEY = "follow:dirty";
+    public static final String FOLLOW_DIRTY_FLUSHING_KEY = "follow:dirty:flushing";
+    public static final String LOCK_FOLLOW_RECONCILE_KEY = "lock:follow:reconcile";
 }
@@ -1,11 +1,13 @@
 package com.example.utils;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class RedisIdWorker {
@@ -17,8 +19,27 @@ public class RedisIdWorker {
      * 序列化左移位数
      */
     private static final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    /**
+     * 每次从redis预取的序列号个数，为1时每个id都INCR一次
+     */
+    @Value("${redis-id-worker.step:1000}")
+    private long step;
+    /**
+     * 业务前缀 -> 本地号段
+     */
+    private final ConcurrentHashMap<String, Segment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * 本地号段[next, end]，号段用完或日期变化时从redis INCRBY申请新号段
+     */
+    private static class Segment {
+        private String key;
+        private long next;
+        private long end;
+    }
 
     public long nextId(String keyPrefix){
         //1,生成时间戳
@@ -27,10 +48,34 @@ public class RedisIdWorker {
         long timeStamp = second - BEGIN_TIMESTAMP;
         //2,生成序列号
         //2,1获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2,2自增长
-        Long aLong = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = now.format(DATE_FORMATTER);
+        //2,2从本地号段取号
+        long sequence = nextSequence(keyPrefix, "icr:" + keyPrefix + ":" + date);
         //3,拼接并返回
-        return timeStamp << COUNT_BITS | aLong;
+        return timeStamp << COUNT_BITS | sequence;
+    }
+
+    /**
+     * 从本地号段取序列号，大多数调用不访问redis
+     * @param keyPrefix
+     * @param key 当天的自增key
+     * @return
+     */
+    private long nextSequence(String keyPrefix, String key) {
+        Segment segment = segments.computeIfAbsent(keyPrefix, k -> new Segment());
+        synchronized (segment) {
+            if (!key.equals(segment.key) || segment.next > segment.end) {
+                //号段用完，申请新号段
+                Long end = stringRedisTemplate.opsForValue().increment(key, step);
+                //在pipeline或事务中INCRBY返回null，号段无效，不能用0推算出负数的起点
+                if (end == null) {
+                    throw new RuntimeException("申请号段失败:" + key);
+                }
+                segment.key = key;
+                segment.end = end;
+                segment.next = segment.end - step + 1;
+            }
+            return segment.next++;
+        }
     }
 }
@@ -0,0 +1,85 @@
+package com.example.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.example.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.example.utils.RedisConstants.SECKILL_WINDOW_KEY;
+
+/**
+ * 秒杀库存分段：把一张券的库存拆成多段，每段的库存、下单用户、时间窗口key和订单消息队列带相同的hash tag，
+ * lua脚本访问的key都在同一个slot；不同段落在不同的slot上，分散到集群的多个分片。
+ * hash tag只含段号，所有券的同一段共用一个订单消息队列，消费者只需监听固定的段数个队列
+ * 段数为1时沿用原来的key和stream.orders（单机redis）
+ */
+public class SeckillSegments {
+    public static final String ORDER_STREAM_KEY = "stream.orders";
+
+    private SeckillSegments() {
+    }
+
+    public static String stockKey(Long voucherId, int segment, int segments) {
+        return SECKILL_STOCK_KEY + key(voucherId, segment, segments);
+    }
+
+    public static String orderKey(Long voucherId, int segment, int segments) {
+        return SECKILL_ORDER_KEY + key(voucherId, segment, segments);
+    }
+
+    public static String windowKey(Long voucherId, int segment, int segments) {
+        return SECKILL_WINDOW_KEY + key(voucherId, segment, segments);
+    }
+
+    /**
+     * 第segment段的订单消息队列
+     * @param segment
+     * @param segments
+     * @return
+     */
+    public static String streamKey(int segment, int segments) {
+        return segments <= 1 ? ORDER_STREAM_KEY : ORDER_STREAM_KEY + ":" + tag(segment);
+    }
+
+    /**
+     * 所有段的订单消息队列
+     * @param segments
+     * @return
+     */
+    public static List<String> streamKeys(int segments) {
+        List<String> keys = new ArrayList<>(Math.max(segments, 1));
+        for (int i = 0; i < Math.max(segments, 1); i++) {
+            keys.add(streamKey(i, segments));
+        }
+        return keys;
+    }
+
+    /**
+     * 用户的归属段，一人一单记录只保存在归属段
+     * @param userId
+     * @param segments
+     * @return
+     */
+    public static int homeSegment(Long userId, int segments) {
+        return (int) Math.floorMod(userId, (long) segments);
+    }
+
+    /**
+     * 第segment段分得的库存，余数分给前几段
+     * @param stock
+     * @param segment
+     * @param segments
+     * @return
+     */
+    public static int segmentStock(int stock, int segment, int segments) {
+        return stock / segments + (segment < stock % segments ? 1 : 0);
+    }
+
+    private static String key(Long voucherId, int segment, int segments) {
+        return segments <= 1 ? voucherId.toString() : tag(segment) + ":" + voucherId;
+    }
+
+    private static String tag(int segment) {
+        return "{seckill:" + segment + "}";
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.example.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄标记，售罄后的秒杀请求直接在本节点拒绝，不再执行lua脚本
+ * 标记通过redis发布订阅同步到其它节点，补库存时清除
+ */
+@Component
+@Slf4j
+public class SeckillSoldOutCache implements MessageListener {
+    private static final String SOLD_OUT = "+";
+    private static final String RESTOCK = "-";
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    /**
+     * 标记的有效时长，过期后每个节点只放行一个请求到redis重新确认，防止错过补库存消息时永久拒绝
+     */
+    @Value("${seckill.sold-out.recheck-ms:1000}")
+    private long recheckMs;
+    /**
+     * 优惠券id -> 标记售罄的时间
+     */
+    private final ConcurrentHashMap<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 是否已售罄，只读本地map，无锁
+     * 标记过期后CAS刷新标记时间，只有成功的线程返回false去redis确认，其余请求继续拒绝
+     * @param voucherId
+     * @return
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        return now - markedAt < recheckMs || !soldOut.replace(voucherId, markedAt, now);
+    }
+
+    /**
+     * 标记售罄，本节点原来没有标记时广播
+     * @param voucherId
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.put(voucherId, System.currentTimeMillis()) == null) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+        }
+    }
+
+    /**
+     * 重新确认时发现仍有库存，清除本节点的标记，再次售罄时重新广播
+     * @param voucherId
+     */
+    public void markAvailable(Long voucherId) {
+        if (soldOut.containsKey(voucherId)) {
+            soldOut.remove(voucherId);
+        }
+    }
+
+    /**
+     * 补库存后清除标记并广播
+     * @param voucherId
+     */
+    public void restock(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESTOCK + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        Long voucherId = Long.valueOf(body.substring(1));
+        if (body.startsWith(SOLD_OUT)) {
+            soldOut.put(voucherId, System.currentTimeMillis());
+        } else {
+            soldOut.remove(voucherId);
+        }
+        log.debug("售罄标记变更:{}", body);
+    }
+}
@@ -0,0 +1,21 @@
+--共同关注：在较小的关注集合上SSCAN一批，逐个检查是否在较大的集合中
+--每次只处理一批，不会像SINTER一样在大集合上阻塞redis
+--1.参数列表
+--1.1遍历的关注集合
+local scanKey = KEYS[1]
+--1.2检查的关注集合
+local checkKey = KEYS[2]
+--1.3 SSCAN游标
+local cursor = ARGV[1]
+--1.4每批数量
+local count = ARGV[2]
+
+--2.第一个元素为下一个游标，之后为这一批中的共同关注，去掉表示已加载的成员"0"
+local scan = redis.call('sscan',scanKey,cursor,'COUNT',count)
+local common = {scan[1]}
+for _, id in ipairs(scan[2]) do
+    if(id ~= '0' and redis.call('sismember',checkKey,id) == 1) then
+        table.insert(common,id)
+    end
+end
+return common
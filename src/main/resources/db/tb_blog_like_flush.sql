@@ -0,0 +1,8 @@
+-- 点赞数批量刷新的幂等记录，每个已应用的批次一行，重启后重放的批次插入失败而跳过
+-- 批次号带时间戳，redis中的序列丢失后也不会与已应用的批次重复；超过保留期的记录定时清除
+DROP TABLE IF EXISTS tb_blog_like_flush;
+CREATE TABLE tb_blog_like_flush (
+    batch_id    BIGINT   NOT NULL PRIMARY KEY,
+    create_time DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    KEY idx_create_time (create_time)
+);
@@ -0,0 +1,2 @@
+-- 推送博文时按粉丝关系id分批读取粉丝：WHERE follow_user_id = ? AND id > ? ORDER BY id LIMIT n
+ALTER TABLE tb_follow ADD INDEX idx_follow_user_id (follow_user_id, id);
@@ -0,0 +1,4 @@
+-- 关注关系异步同步按最终状态幂等写入(INSERT IGNORE)，依赖该唯一索引；添加前先清理重复的关注记录
+DELETE f1 FROM tb_follow f1 JOIN tb_follow f2
+    ON f1.user_id = f2.user_id AND f1.follow_user_id = f2.follow_user_id AND f1.id > f2.id;
+ALTER TABLE tb_follow ADD UNIQUE KEY uk_user_follow (user_id, follow_user_id);
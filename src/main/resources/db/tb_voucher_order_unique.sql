@@ -0,0 +1,2 @@
+-- 一人一单的数据库兜底，订单幂等写入(INSERT IGNORE)依赖该唯一索引
+ALTER TABLE tb_voucher_order ADD UNIQUE KEY uk_user_voucher (user_id, voucher_id);
@@ -0,0 +1,39 @@
+--关注或取关，先写redis，数据库由定时任务按最终状态批量同步
+--1.参数列表
+--1.1关注集合，成员"0"表示已从数据库加载
+local followKey = KEYS[1]
+--1.2待同步的关注关系hash：userId:followUserId -> 1关注/0取关
+local pendingKey = KEYS[2]
+--1.3粉丝数hash：userId -> 粉丝数
+local countKey = KEYS[3]
+--1.4粉丝数有未同步变化的用户集合
+local dirtyKey = KEYS[4]
+--1.5用户id
+local userId = ARGV[1]
+--1.6被关注的用户id
+local followUserId = ARGV[2]
+--1.7 1关注，0取关
+local isFollow = ARGV[3]
+
+--2.关注集合未加载，由调用方加载后重试
+if(redis.call('sismember',followKey,'0') == 0) then
+    return -1
+end
+--3.关注状态未变化
+if(isFollow == '1') then
+    if(redis.call('sadd',followKey,followUserId) == 0) then
+        return 0
+    end
+else
+    if(redis.call('srem',followKey,followUserId) == 0) then
+        return 0
+    end
+end
+--4.记录最终状态，同一关系多次变化只同步最后一次
+redis.call('hset',pendingKey,userId .. ':' .. followUserId,isFollow)
+--5.粉丝数已初始化时同步增减，未初始化的在读取时从数据库加载；关注数即关注集合的大小
+if(redis.call('hexists',countKey,followUserId) == 1) then
+    redis.call('hincrby',countKey,followUserId,isFollow == '1' and 1 or -1)
+end
+redis.call('sadd',dirtyKey,followUserId)
+return 1
@@ -0,0 +1,22 @@
+--用数据库的粉丝数设置redis中的粉丝数
+--用户有未同步到数据库的关注变化时，数据库的数不准确，跳过该用户
+--1.参数列表
+--1.1粉丝数hash
+local countKey = KEYS[1]
+--1.2粉丝数有变化的用户集合
+local dirtyKey = KEYS[2]
+--1.3同步中的用户集合
+local dirtyFlushingKey = KEYS[3]
+--1.4 ARGV为 userId, 数据库粉丝数 依次排列
+
+local updated = 0
+for i = 1, #ARGV, 2 do
+    local userId = ARGV[i]
+    if(redis.call('sismember',dirtyKey,userId) == 0 and redis.call('sismember',dirtyFlushingKey,userId) == 0) then
+        if(redis.call('hget',countKey,userId) ~= ARGV[i + 1]) then
+            redis.call('hset',countKey,userId,ARGV[i + 1])
+            updated = updated + 1
+        end
+    end
+end
+return updated
@@ -0,0 +1,13 @@
+--取出待同步的关注关系，移入同步中的hash，粉丝数有变化的用户集合一起移入
+--上次同步未完成（如重启）时直接返回上次的数据，数据库按最终状态写入，重放是幂等的
+--KEYS[1]待同步的hash，KEYS[2]同步中的hash，KEYS[3]粉丝数有变化的用户集合，KEYS[4]同步中的用户集合
+if(redis.call('exists',KEYS[2]) == 0) then
+    if(redis.call('exists',KEYS[1]) == 0) then
+        return {}
+    end
+    redis.call('rename',KEYS[1],KEYS[2])
+    if(redis.call('exists',KEYS[3]) == 1) then
+        redis.call('rename',KEYS[3],KEYS[4])
+    end
+end
+return redis.call('hgetall',KEYS[2])
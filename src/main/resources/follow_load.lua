@@ -0,0 +1,10 @@
+--从数据库加载关注集合，已加载则不覆盖，避免旧数据覆盖加载期间的关注或取关
+--KEYS[1]关注集合，ARGV为关注的用户id
+if(redis.call('sismember',KEYS[1],'0') == 1) then
+    return 0
+end
+for _, id in ipairs(ARGV) do
+    redis.call('sadd',KEYS[1],id)
+end
+redis.call('sadd',KEYS[1],'0')
+return 1
@@ -0,0 +1,20 @@
+--点赞后更新热门排行榜
+--1.参数列表
+--1.1热门排行榜key
+local hotKey = KEYS[1]
+--1.2博文id
+local blogId = ARGV[1]
+--1.3 1点赞，0取消点赞
+local liked = ARGV[2]
+
+--2.点赞加1
+if(liked == '1') then
+    return redis.call('zincrby',hotKey,1,blogId)
+end
+--3.取消点赞减1，衰减后的分数可能小于1，热度最低减到0
+local score = tonumber(redis.call('zscore',hotKey,blogId))
+if(score and score > 1) then
+    return redis.call('zincrby',hotKey,-1,blogId)
+end
+redis.call('zadd',hotKey,0,blogId)
+return '0'
@@ -0,0 +1,28 @@
+--点赞/取消点赞，切换点赞集合并累加待刷新到数据库的点赞数，热门排行榜由调用方按返回值更新
+--所有key带相同的hash tag，在同一个slot
+--1.参数列表
+--1.1点赞集合key
+local likedKey = KEYS[1]
+--1.2点赞数增量hash
+local deltaKey = KEYS[2]
+--1.3待刷新的博文id集合
+local dirtyKey = KEYS[3]
+--1.4用户id
+local userId = ARGV[1]
+--1.5当前时间
+local now = ARGV[2]
+--1.6博文id
+local blogId = ARGV[3]
+
+--2.已点赞则取消点赞
+if(redis.call('zscore',likedKey,userId)) then
+    redis.call('zrem',likedKey,userId)
+    redis.call('hincrby',deltaKey,blogId,-1)
+    redis.call('sadd',dirtyKey,blogId)
+    return 0
+end
+--3.未点赞则点赞
+redis.call('zadd',likedKey,now,userId)
+redis.call('hincrby',deltaKey,blogId,1)
+redis.call('sadd',dirtyKey,blogId)
+return 1
@@ -0,0 +1,33 @@
+--取出一批待刷新的点赞数增量，移入刷新中的hash并分配批次号
+--上次刷新未完成（如重启）时直接返回上次的批次，数据库按批次号保证只应用一次
+--所有key带相同的hash tag，在同一个slot
+--1.参数列表
+--1.1点赞数增量hash
+local deltaKey = KEYS[1]
+--1.2待刷新的博文id集合
+local dirtyKey = KEYS[2]
+--1.3刷新中的hash：博文id -> 增量，batch -> 批次号
+local flushingKey = KEYS[3]
+--1.4每批数量
+local count = ARGV[1]
+--1.5新批次的批次号，由调用方生成，不依赖redis中的序列
+local batchId = ARGV[2]
+
+--2.有未完成的批次则重新返回
+if(redis.call('exists',flushingKey) == 1) then
+    return redis.call('hgetall',flushingKey)
+end
+--3.取出一批博文id，增量移入刷新中的hash
+local ids = redis.call('spop',dirtyKey,count)
+for _, id in ipairs(ids) do
+    local delta = redis.call('hget',deltaKey,id)
+    redis.call('hdel',deltaKey,id)
+    if(delta and tonumber(delta) ~= 0) then
+        redis.call('hset',flushingKey,id,delta)
+    end
+end
+--4.分配批次号
+if(redis.call('exists',flushingKey) == 1) then
+    redis.call('hset',flushingKey,'batch',batchId)
+end
+return redis.call('hgetall',flushingKey)
@@ -1,32 +1,54 @@
 --1.参数列表
---1.1优惠券id
+--1.1库存key
+local stockKey = KEYS[1]
+--1.2订单key（一人一单）
+local orderKey = KEYS[2]
+--1.3秒杀时间窗口key（hash：begin、end，毫秒时间戳）
+local windowKey = KEYS[3]
+--1.4订单消息队列key，与其它key在同一个slot
+local streamKey = KEYS[4]
+--1.5优惠券id
 local voucherId = ARGV[1]
---1.2用户id
+--1.6用户id
 local userId = ARGV[2]
---1.3订单id
+--1.7订单id
 local orderId = ARGV[3]
+--1.8库存不足时是否为用户占位（分段库存的归属段传1，再去其它段扣库存）
+local reserve = ARGV[4]
+--1.9当前时间，毫秒时间戳
+local now = tonumber(ARGV[5])
 
---2.数据key
---2.1库存key
-local stockKey = 'seckill:stock:'..voucherId
---2.2订单key
-local orderKey = 'seckill:order:'..voucherId
-
---3.脚本业务
---3.1判断库存是否充足get stockKey
-if(tonumber(redis.call('get',stockKey)) <= 0) then
-    --3.2库存不足
-    return 1
+--2.脚本业务
+--2.0判断是否在秒杀时间内，未预热时间窗口的券不做判断
+local window = redis.call('hmget',windowKey,'begin','end')
+if(window[1] and now < tonumber(window[1])) then
+    --秒杀尚未开始，返回4
+    return 4
+end
+if(window[2] and now > tonumber(window[2])) then
+    --秒杀已经结束，返回5
+    return 5
 end
---3.3判断用户是否下单
+--2.1判断用户是否下单
 if(redis.call('sismember',orderKey,userId) == 1) then
-    --3.4存在，说明是重复下单，返回2
+    --2.2存在，说明是重复下单，返回2
     return 2
 end
---3.5扣库存
+--2.3判断库存是否充足get stockKey
+local stock = tonumber(redis.call('get',stockKey))
+if(stock == nil or stock <= 0) then
+    if(reserve == '1') then
+        --2.4归属段库存不足，先占位保证一人一单，返回3
+        redis.call('sadd',orderKey,userId)
+        return 3
+    end
+    --2.5库存不足
+    return 1
+end
+--2.6扣库存
 redis.call('incrby',stockKey,-1)
---3.6下单（保存用户）
+--2.7下单（保存用户）
 redis.call('sadd',orderKey,userId)
---3.7发送消息到队列
-redis.call('xadd','stream.orders','*','userId',userId,'voucherId',voucherId,'id',orderId)
+--2.8发送消息到队列
+redis.call('xadd',streamKey,'*','userId',userId,'voucherId',voucherId,'id',orderId)
 return 0
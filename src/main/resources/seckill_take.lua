@@ -0,0 +1,23 @@
+--分段库存：用户已在归属段占位，从其它段扣库存
+--1.参数列表
+--1.1库存key
+local stockKey = KEYS[1]
+--1.2订单消息队列key，与库存key在同一个slot
+local streamKey = KEYS[2]
+--1.3优惠券id
+local voucherId = ARGV[1]
+--1.4用户id
+local userId = ARGV[2]
+--1.5订单id
+local orderId = ARGV[3]
+
+--2.判断库存是否充足
+local stock = tonumber(redis.call('get',stockKey))
+if(stock == nil or stock <= 0) then
+    return 1
+end
+--3.扣库存
+redis.call('incrby',stockKey,-1)
+--4.发送消息到队列
+redis.call('xadd',streamKey,'*','userId',userId,'voucherId',voucherId,'id',orderId)
+return 0
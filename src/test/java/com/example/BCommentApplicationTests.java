@@ -2,23 +2,36 @@ package com.example;
 
 import com.example.entity.Shop;
 import com.example.service.impl.ShopServiceImpl;
+import com.example.utils.BinaryCacheCodec;
 import com.example.utils.CacheClient;
+import com.example.utils.JsonCacheCodec;
+import com.example.utils.RedisData;
 import com.example.utils.RedisIdWorker;
+import com.example.utils.SeckillSegments;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static com.example.utils.RedisConstants.CACHE_SHOP_KEY;
 import static com.example.utils.RedisConstants.SHOP_GEO_KEY;
 
@@ -34,35 +47,104 @@ class BCommentApplicationTests {
     private StringRedisTemplate stringRedisTemplate;
 
     private final ExecutorService es = Executors.newFixedThreadPool(500);
+    //秒杀准入测试使用分段后的key
+    private static final int ADMISSION_SEGMENTS = 2;
+    private static final int ADMISSION_SEGMENT = 0;
 
     /**
-     * 测试id生成器
+     * 测试id生成器，多线程并发取号不重复
      * @throws Exception
      */
     @Test
     void testIdWorker() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
         CountDownLatch latch = new CountDownLatch(300);
         Runnable task = () -> {
             for (int i = 0; i < 100; i++) {
-                long order = redisIdWorker.nextId("order");
-                System.out.println("id = " + order);
+                ids.add(redisIdWorker.nextId("order"));
             }
             latch.countDown();
         };
-        long begin = System.currentTimeMillis();
         for (int i = 0; i < 300; i++) {
             es.submit(task);
         }
         latch.await();
-        long end = System.currentTimeMillis();
-        System.out.println("time = " + (end - begin));
+        assertEquals(300 * 100, ids.size());
     }
+    /**
+     * 测试秒杀准入：并发取号并执行秒杀脚本
+     * 使用库存为0的临时优惠券，脚本只读不写，不会产生订单消息
+     * @throws Exception
+     */
+    @Test
+    void testSeckillAdmission() throws Exception {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("seckill.lua"));
+        script.setResultType(Long.class);
+        Long voucherId = -1L;
+        String stockKey = SeckillSegments.stockKey(voucherId, ADMISSION_SEGMENT, ADMISSION_SEGMENTS);
+        stringRedisTemplate.opsForValue().set(stockKey, "0");
+        try {
+            //库存为0，全部返回库存不足
+            assertEquals(0, admit(script, voucherId));
+        } finally {
+            stringRedisTemplate.delete(stockKey);
+        }
+    }
+
+    /**
+     * @return 结果不是库存不足的请求数
+     */
+    private int admit(DefaultRedisScript<Long> script, Long voucherId) throws InterruptedException {
+        //与秒杀接口相同，使用同一段带hash tag的key，全部在一个slot
+        List<String> keys = Arrays.asList(
+                SeckillSegments.stockKey(voucherId, ADMISSION_SEGMENT, ADMISSION_SEGMENTS),
+                SeckillSegments.orderKey(voucherId, ADMISSION_SEGMENT, ADMISSION_SEGMENTS),
+                SeckillSegments.windowKey(voucherId, ADMISSION_SEGMENT, ADMISSION_SEGMENTS),
+                SeckillSegments.streamKey(ADMISSION_SEGMENT, ADMISSION_SEGMENTS));
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(300);
+        Runnable task = () -> {
+            for (int i = 0; i < 100; i++) {
+                long orderId = redisIdWorker.nextId("order");
+                Long result = stringRedisTemplate.execute(script, keys,
+                        voucherId.toString(), String.valueOf(i), String.valueOf(orderId), "0",
+                        String.valueOf(System.currentTimeMillis()));
+                if (result == null || result != 1) {
+                    admitted.incrementAndGet();
+                }
+            }
+            latch.countDown();
+        };
+        for (int i = 0; i < 300; i++) {
+            es.submit(task);
+        }
+        latch.await();
+        return admitted.get();
+    }
+
     @Test
     void testSaveShop(){
         Shop shop = shopService.getById(1L);
         cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + 1L, shop, 10L, TimeUnit.SECONDS);
     }
 
+    /**
+     * json和二进制编码都能还原数据，二进制编码更小
+     */
+    @Test
+    void testCacheCodec(){
+        Shop shop = shopService.getById(1L);
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().withNano(0));
+        byte[] json = new JsonCacheCodec().encodeLogical(redisData);
+        byte[] binary = new BinaryCacheCodec().encodeLogical(redisData);
+        assertEquals(shop, new JsonCacheCodec().decodeLogical(json, Shop.class).getData());
+        assertEquals(shop, new BinaryCacheCodec().decodeLogical(binary, Shop.class).getData());
+        assertTrue(binary.length < json.length);
+    }
+
     /**
      * 加载店铺地址
      */
@@ -0,0 +1,123 @@
+package com.example.service.impl;
+
+import com.example.dto.UserDTO;
+import com.example.entity.Blog;
+import com.example.service.IUserService;
+import com.example.utils.CacheClient;
+import com.example.utils.HotKeyDetector;
+import com.example.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.example.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.example.utils.RedisConstants.CACHE_USER_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * 博文列表填充的往返次数不随每页条数增长
+ */
+@ExtendWith(MockitoExtension.class)
+class BlogHydratorTest {
+    @Mock
+    private IUserService userService;
+    @Mock
+    private CacheClient cacheClient;
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+    @Mock
+    private HotKeyDetector hotKeyDetector;
+    @InjectMocks
+    private BlogHydrator blogHydrator;
+
+    @BeforeEach
+    void login() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        UserHolder.saveUser(user);
+    }
+
+    @AfterEach
+    void logout() {
+        UserHolder.removeUser();
+    }
+
+    @SuppressWarnings("unchecked")
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10, 100})
+    void loadByIdsUsesConstantRoundTrips(int pageSize) {
+        List<Long> ids = new ArrayList<>(pageSize);
+        for (long i = 1; i <= pageSize; i++) {
+            ids.add(i);
+        }
+        //博文缓存：作者id为博文id对3取余
+        when(cacheClient.queryBatchWithPassThrough(eq(CACHE_BLOG_KEY), anyCollection(), eq(Blog.class),
+                any(), any(), any(), any()))
+                .thenAnswer(invocation -> ((Collection<Long>) invocation.getArgument(1)).stream()
+                        .map(id -> blog(id, id % 3)).collect(Collectors.toList()));
+        //用户缓存
+        when(cacheClient.queryBatchWithPassThrough(eq(CACHE_USER_KEY), anyCollection(), eq(UserDTO.class),
+                any(), any(), any(), any()))
+                .thenAnswer(invocation -> ((Collection<Long>) invocation.getArgument(1)).stream()
+                        .map(this::user).collect(Collectors.toList()));
+        //点赞状态：执行pipeline回调，奇数id已点赞
+        StringRedisConnection connection = mock(StringRedisConnection.class);
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return ids.stream().map(id -> id % 2 == 1 ? (Object) 1D : null).collect(Collectors.toList());
+        });
+
+        List<Blog> blogs = blogHydrator.loadByIds(ids, blogIds -> {
+            throw new AssertionError("未命中时由CacheClient批量查库");
+        });
+
+        //博文一次MGET、作者一次MGET、点赞状态一个pipeline
+        verify(cacheClient, times(2)).queryBatchWithPassThrough(anyString(), anyCollection(), any(),
+                any(), any(), any(), any());
+        verify(stringRedisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+        verifyNoMoreInteractions(cacheClient, stringRedisTemplate);
+        verifyNoInteractions(userService);
+        verify(connection, times(pageSize)).zScore(anyString(), eq("1"));
+        assertEquals(pageSize, blogs.size());
+        for (Blog blog : blogs) {
+            assertEquals("user" + blog.getId() % 3, blog.getName());
+            assertEquals(blog.getId() % 2 == 1, blog.getIsLike());
+        }
+    }
+
+    private Blog blog(Long id, Long userId) {
+        Blog blog = new Blog();
+        blog.setId(id);
+        blog.setUserId(userId);
+        return blog;
+    }
+
+    private UserDTO user(Long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        user.setNickName("user" + id);
+        return user;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.service.impl;
+
+import com.example.dto.ScrollResult;
+import com.example.service.IFollowService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.example.utils.RedisConstants.FEED_KEY;
+import static com.example.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.example.utils.RedisConstants.FEED_PULL_AUTHORS_KEY;
+import static com.example.utils.RedisConstants.FOLLOW_USER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 收件箱和发件箱归并后的滚动分页与单个有序集合的分页结果一致
+ */
+@ExtendWith(MockitoExtension.class)
+class FeedReaderTest {
+    private static final Comparator<ZSetOperations.TypedTuple<String>> ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>, Double>comparing(ZSetOperations.TypedTuple::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue).reversed();
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+    @Mock
+    private IFollowService followService;
+    @Mock
+    private SetOperations<String, String> setOperations;
+    @InjectMocks
+    private FeedReader feedReader;
+    private final Map<String, List<ZSetOperations.TypedTuple<String>>> zsets = new HashMap<>();
+
+    @BeforeEach
+    void feeds() {
+        //收件箱，同一时间多条
+        zset(FEED_KEY + 1, 1, 100, 2, 100, 3, 90, 4, 80, 5, 80, 6, 80);
+        //拉模式作者7的发件箱，博文3同时在收件箱中
+        zset(FEED_OUTBOX_KEY + 7, 10, 100, 11, 80, 3, 90);
+        zset(FEED_OUTBOX_KEY + 8, 12, 80, 13, 70);
+    }
+
+    @SuppressWarnings("unchecked")
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 5})
+    void scrollMatchesSingleSortedSet(int count) {
+        StringRedisConnection connection = mock(StringRedisConnection.class);
+        List<Object> results = new ArrayList<>();
+        //关注的作者中7、8为拉模式
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.intersect(FOLLOW_USER + 1, FEED_PULL_AUTHORS_KEY))
+                .thenReturn(new HashSet<>(Arrays.asList("7", "8")));
+        //pipeline中的命令返回null，结果在executePipelined时返回
+        when(connection.zRevRangeByScoreWithScores(anyString(), anyDouble(), anyDouble(), anyLong(), anyLong()))
+                .thenAnswer(invocation -> pipelined(results, range(invocation.getArgument(0),
+                        invocation.getArgument(2), invocation.getArgument(3), invocation.getArgument(4))));
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            results.clear();
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return new ArrayList<>(results);
+        });
+
+        List<Long> scrolled = new ArrayList<>();
+        long max = 1000;
+        int offset = 0;
+        while (true) {
+            ScrollResult result = feedReader.scroll(1L, max, offset, count);
+            List<Long> ids = (List<Long>) result.getList();
+            if (ids.isEmpty()) {
+                break;
+            }
+            scrolled.addAll(ids);
+            max = result.getMinTime();
+            offset = result.getOffset();
+        }
+        assertEquals(expected(), scrolled);
+    }
+
+    private static Object pipelined(List<Object> results, Object result) {
+        results.add(result);
+        return null;
+    }
+
+    private List<Long> expected() {
+        Map<String, ZSetOperations.TypedTuple<String>> unique = new HashMap<>();
+        for (List<ZSetOperations.TypedTuple<String>> tuples : zsets.values()) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                unique.put(tuple.getValue(), tuple);
+            }
+        }
+        return unique.values().stream().sorted(ORDER)
+                .map(tuple -> Long.valueOf(tuple.getValue())).collect(Collectors.toList());
+    }
+
+    private Set<ZSetOperations.TypedTuple<String>> range(String key, double max, long offset, long count) {
+        return zsets.getOrDefault(key, new ArrayList<>()).stream()
+                .filter(tuple -> tuple.getScore() <= max).sorted(ORDER).skip(offset).limit(count)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private void zset(String key, long... idAndTimes) {
+        List<ZSetOperations.TypedTuple<String>> tuples = new ArrayList<>();
+        for (int i = 0; i < idAndTimes.length; i += 2) {
+            tuples.add(new DefaultTypedTuple<>(String.valueOf(idAndTimes[i]), (double) idAndTimes[i + 1]));
+        }
+        zsets.put(key, tuples);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 号段预取：号段内的序列号连续递增，用完后才向redis申请下一个号段
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisIdWorkerTest {
+    private static final long STEP = 3;
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+    @InjectMocks
+    private RedisIdWorker redisIdWorker;
+
+    @BeforeEach
+    void step() {
+        ReflectionTestUtils.setField(redisIdWorker, "step", STEP);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+    }
+
+    @Test
+    void leasesNextSegmentWhenExhausted() {
+        when(valueOperations.increment(anyString(), eq(STEP))).thenReturn(3L, 6L);
+
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ids.add(redisIdWorker.nextId("order"));
+        }
+        //序列号为两个号段[1,3]、[4,6]，只访问redis两次
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i + 1, ids.get(i) & 0xFFFFFFFFL);
+        }
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i) > ids.get(i - 1));
+        }
+        assertEquals(ids.size(), new HashSet<>(ids).size());
+        verify(valueOperations, times(2)).increment(anyString(), eq(STEP));
+    }
+
+    @Test
+    void failsWhenSegmentCannotBeLeased() {
+        when(valueOperations.increment(anyString(), eq(STEP))).thenReturn(null);
+
+        assertThrows(RuntimeException.class, () -> redisIdWorker.nextId("order"));
+    }
+}